@@ -1,6 +1,17 @@
 import SockJS from 'sockjs-client'
 import { Client } from '@stomp/stompjs'
 
+// 服务端在消息密集时会把多条消息合并成一个 JSON 数组帧，并带上 x-batch 头
+export const unpackMessage = (message) => {
+  const data = JSON.parse(message.body)
+  return message.headers?.['x-batch'] && Array.isArray(data) ? data : [data]
+}
+
+// 本页的上传标识，STOMP CONNECT 和图片上传带同一个值，服务端按这个会话给上传限流
+export const UPLOAD_KEY_HEADER = 'x-upload-key'
+export const uploadKey = Array.from(crypto.getRandomValues(new Uint8Array(16)),
+  (b) => b.toString(16).padStart(2, '0')).join('')
+
 export const createWebSocketConnection = async (chatCode) => {
   console.group('WebSocket 连接配置')
   
@@ -32,6 +43,11 @@ export const createWebSocketConnection = async (chatCode) => {
         console.log('STOMP Debug:', str)
       }
     },
+    // 声明支持合并帧
+    connectHeaders: {
+      'x-batch': 'true',
+      [UPLOAD_KEY_HEADER]: uploadKey
+    },
     reconnectDelay: 5000,
     heartbeatIncoming: 4000,
     heartbeatOutgoing: 4000,
@@ -41,16 +57,17 @@ export const createWebSocketConnection = async (chatCode) => {
         socket.subscribe(`/chat/${chatCode}`, (message) => {
           try {
             console.log('收到消息:', message)
-            const data = JSON.parse(message.body)
-            if (data.type === 'ONLINE_COUNT') {
-              console.log('收到在线人数更新:', data)
-              window.dispatchEvent(new CustomEvent('onlineCountUpdate', { 
-                detail: {
-                  chatCode: data.chatCode,
-                  count: parseInt(data.content) || 0,
-                  timestamp: data.timestamp
-                }
-              }))
+            for (const data of unpackMessage(message)) {
+              if (data.type === 'ONLINE_COUNT') {
+                console.log('收到在线人数更新:', data)
+                window.dispatchEvent(new CustomEvent('onlineCountUpdate', { 
+                  detail: {
+                    chatCode: data.chatCode,
+                    count: parseInt(data.content) || 0,
+                    timestamp: data.timestamp
+                  }
+                }))
+              }
             }
           } catch (error) {
             console.error('处理消息时出错:', error)
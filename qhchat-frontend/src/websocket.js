@@ -92,4 +92,143 @@ export const getConnectionStatus = () => {
 
 export const getClient = () => {
   return stompClient
-} 
\ No newline at end of file
+} 
+
+// 原生 /ws 的二进制协议(/ws?proto=bin)，与服务端 WireMessage 的帧格式一致：
+// [1字节版本][1字节类型][1字节标志][8字节时间戳][1字节房间号长度][房间号][1字节发送者长度][发送者][载荷]
+const WIRE_VERSION = 1
+const WIRE_FLAG_ENCRYPTED = 1
+const WIRE_FIXED_HEADER_BYTES = 13
+
+export const WIRE_TYPES = {
+  CHAT: 1,
+  JOIN: 2,
+  LEAVE: 3,
+  ONLINE_COUNT: 4,
+  CREATE: 5,
+  image: 6
+}
+
+const WIRE_TYPE_NAMES = Object.fromEntries(
+  Object.entries(WIRE_TYPES).map(([name, code]) => [code, name])
+)
+
+const textEncoder = new TextEncoder()
+const textDecoder = new TextDecoder()
+
+const toBase64 = (bytes) => {
+  let binary = ''
+  for (let i = 0; i < bytes.length; i += 0x8000) {
+    binary += String.fromCharCode(...bytes.subarray(i, i + 0x8000))
+  }
+  return btoa(binary)
+}
+
+/**
+ * 按 JSON 协议的字段编码一条消息：{ type, chatCode, sender, timestamp, content }。
+ * 图片消息传 image(Uint8Array/ArrayBuffer) 和 mimeType，content 会被忽略。
+ */
+export const encodeWireMessage = ({ type, chatCode, sender, timestamp, content, image, mimeType }) => {
+  const code = WIRE_TYPES[type]
+  if (!code) {
+    throw new Error(`不支持的消息类型: ${type}`)
+  }
+  const room = textEncoder.encode(chatCode || '')
+  const from = textEncoder.encode(sender || '')
+  if (room.length > 255 || from.length > 255) {
+    throw new Error('房间号或发送者超过 255 字节')
+  }
+  let payload
+  if (type === 'image') {
+    const mime = textEncoder.encode(mimeType || '')
+    const bytes = image instanceof Uint8Array ? image : new Uint8Array(image)
+    payload = new Uint8Array(1 + mime.length + bytes.length)
+    payload[0] = mime.length
+    payload.set(mime, 1)
+    payload.set(bytes, 1 + mime.length)
+  } else {
+    payload = textEncoder.encode(content || '')
+  }
+
+  const frame = new Uint8Array(WIRE_FIXED_HEADER_BYTES + room.length + from.length + payload.length)
+  const view = new DataView(frame.buffer)
+  view.setUint8(0, WIRE_VERSION)
+  view.setUint8(1, code)
+  view.setUint8(2, 0)
+  view.setBigInt64(3, BigInt(timestamp || Date.now()))
+  let offset = 11
+  frame[offset++] = room.length
+  frame.set(room, offset)
+  offset += room.length
+  frame[offset++] = from.length
+  frame.set(from, offset)
+  offset += from.length
+  frame.set(payload, offset)
+  return frame.buffer
+}
+
+/**
+ * 解码服务端发来的二进制帧，返回与 JSON 协议相同结构的对象：
+ * 密文以 Base64 放在 content 并带 encrypted，在线人数放在 count。
+ */
+export const decodeWireMessage = (buffer) => {
+  const bytes = new Uint8Array(buffer)
+  const view = new DataView(bytes.buffer, bytes.byteOffset, bytes.byteLength)
+  if (bytes.length < WIRE_FIXED_HEADER_BYTES || view.getUint8(0) !== WIRE_VERSION) {
+    throw new Error('无效的二进制消息')
+  }
+  const type = WIRE_TYPE_NAMES[view.getUint8(1)]
+  const flags = view.getUint8(2)
+  const timestamp = Number(view.getBigInt64(3))
+  let offset = 11
+  const roomLength = bytes[offset++]
+  const chatCode = textDecoder.decode(bytes.subarray(offset, offset + roomLength))
+  offset += roomLength
+  const senderLength = bytes[offset++]
+  const sender = senderLength ? textDecoder.decode(bytes.subarray(offset, offset + senderLength)) : undefined
+  offset += senderLength
+  const payload = bytes.subarray(offset)
+
+  const message = { type, chatCode, timestamp }
+  if (sender !== undefined) {
+    message.sender = sender
+  }
+  if (type === 'ONLINE_COUNT') {
+    message.count = payload.length >= 4 ? new DataView(payload.buffer, payload.byteOffset, 4).getInt32(0) : 0
+  } else if (flags & WIRE_FLAG_ENCRYPTED) {
+    message.content = toBase64(payload)
+    message.encrypted = true
+  } else if (payload.length > 0) {
+    message.content = textDecoder.decode(payload)
+  }
+  return message
+}
+
+/**
+ * 解析原生 /ws 收到的一帧：二进制帧按二进制协议解码，文本帧按 JSON 解析(可能是合并后的数组)。
+ * 服务端转发的 JSON 客户端消息、历史回放等仍以文本帧下发，所以两种都要处理。
+ */
+export const unpackWireFrame = (data) => {
+  if (typeof data === 'string') {
+    const parsed = JSON.parse(data)
+    return Array.isArray(parsed) ? parsed : [parsed]
+  }
+  return [decodeWireMessage(data)]
+}
+
+/**
+ * 以二进制协议连接原生 /ws，onMessage 对每条消息回调一次。
+ */
+export const connectWire = (url, onMessage) => {
+  const separator = url.includes('?') ? '&' : '?'
+  const socket = new WebSocket(`${url}${separator}proto=bin`)
+  socket.binaryType = 'arraybuffer'
+  socket.onmessage = (event) => {
+    try {
+      unpackWireFrame(event.data).forEach(onMessage)
+    } catch (error) {
+      console.error('解析消息失败:', error)
+    }
+  }
+  return socket
+}
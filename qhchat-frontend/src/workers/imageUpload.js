@@ -1,7 +1,7 @@
 // 图片上传 Worker
 self.onmessage = async (e) => {
   try {
-    const { file, chatCode, sender, apiUrl } = e.data
+    const { file, chatCode, sender, apiUrl, uploadKey } = e.data
     const formData = new FormData()
     formData.append('file', file)
     formData.append('chatCode', chatCode)
@@ -11,12 +11,14 @@ self.onmessage = async (e) => {
       method: 'POST',
       body: formData,
       headers: {
-        'Accept': 'application/json'
+        'Accept': 'application/json',
+        // 与 STOMP CONNECT 带的标识一致，服务端按该会话限流
+        'x-upload-key': uploadKey
       }
     })
 
     if (!response.ok) {
-      throw new Error(response.statusText || '上传失败')
+      throw new Error(response.status === 429 ? '上传太频繁，请稍后再试' : (response.statusText || '上传失败'))
     }
 
     const result = await response.json()
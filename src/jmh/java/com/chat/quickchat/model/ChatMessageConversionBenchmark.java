@@ -0,0 +1,68 @@
+package com.chat.quickchat.model;
+
+import com.chat.quickchat.websocket.BroadcastFrame;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * STOMP 路径上 ChatMessage 的转换：入站 JSON -> ChatMessage，
+ * 出站经消息转换器(SimpMessagingTemplate.convertAndSend 的做法)与经 BroadcastFrame 预编码的对比。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ChatMessageConversionBenchmark {
+
+    private MappingJackson2MessageConverter converter;
+    private Message<byte[]> inbound;
+    private ChatMessage chatMessage;
+    private MessageHeaders outboundHeaders;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        converter = new MappingJackson2MessageConverter();
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create();
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        String json = "{\"chatCode\":\"bench-room\",\"sender\":\"benchmark-user\",\"content\":\"" + "x".repeat(100)
+            + "\",\"type\":\"CHAT\",\"timestamp\":1700000000000}";
+        inbound = MessageBuilder.createMessage(json.getBytes(StandardCharsets.UTF_8), accessor.getMessageHeaders());
+        chatMessage = (ChatMessage) converter.fromMessage(inbound, ChatMessage.class);
+        outboundHeaders = SimpMessageHeaderAccessor.create().getMessageHeaders();
+    }
+
+    @Benchmark
+    public Object fromMessage() {
+        return converter.fromMessage(inbound, ChatMessage.class);
+    }
+
+    @Benchmark
+    public Message<?> toMessageViaConverter() {
+        return converter.toMessage(chatMessage, outboundHeaders);
+    }
+
+    @Benchmark
+    public Message<byte[]> toMessageViaBroadcastFrame() {
+        return BroadcastFrame.of(chatMessage).toMessage();
+    }
+}
@@ -0,0 +1,112 @@
+package com.chat.quickchat.service;
+
+import com.chat.quickchat.metrics.ChatMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.ReflectionUtils;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 图片保存与读取。saveDuplicate 走内容去重，saveUnique 每次写新文件；
+ * getCached 命中内存缓存，getFromDisk 关闭内存缓存后只读取元数据和路径。
+ * 每轮迭代都在新的临时目录里重建服务，避免文件和引用计数跨迭代累积。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ImageCacheBenchmark {
+
+    @Param({"4096", "262144"})
+    private int contentSize;
+
+    private Path directory;
+    private ImageCacheService cached;
+    private ImageCacheService uncached;
+    private byte[] content;
+    private long counter;
+    private String cachedHandle;
+    private String uncachedHandle;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("image-benchmark-");
+        content = new byte[contentSize];
+        new Random(42).nextBytes(content);
+        cached = createService(directory.resolve("cached"), 64L * 1024 * 1024);
+        uncached = createService(directory.resolve("uncached"), 0);
+        cachedHandle = cached.saveImage(content, ".png");
+        uncachedHandle = uncached.saveImage(content, ".png");
+    }
+
+    private static ImageCacheService createService(Path uploadPath, long cacheMaxEntryBytes) {
+        ImageCacheService service = new ImageCacheService();
+        setField(service, "uploadPath", uploadPath.toString());
+        setField(service, "cacheMaxBytes", 64L * 1024 * 1024);
+        setField(service, "cacheMaxEntryBytes", cacheMaxEntryBytes);
+        setField(service, "uploadMaxBytes", 10L * 1024 * 1024);
+        // 不生成缩略图，避免后台线程干扰测量
+        setField(service, "previewSizes", new int[0]);
+        setField(service, "previewThreads", 1);
+        setField(service, "previewQueueSize", 1);
+        service.setMetrics(new ChatMetrics(new SimpleMeterRegistry(), 100));
+        service.init();
+        return service;
+    }
+
+    private static void setField(Object target, String name, Object value) {
+        Field field = ReflectionUtils.findField(target.getClass(), name);
+        ReflectionUtils.makeAccessible(field);
+        ReflectionUtils.setField(field, target, value);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        cached.destroy();
+        uncached.destroy();
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public String saveDuplicate() {
+        return cached.saveImage(content, ".png");
+    }
+
+    @Benchmark
+    public String saveUnique() {
+        ByteBuffer.wrap(content).putLong(0, ++counter);
+        return cached.saveImage(content, ".png");
+    }
+
+    @Benchmark
+    public StoredImage getCached() {
+        return cached.getImage(cachedHandle);
+    }
+
+    @Benchmark
+    public StoredImage getFromDisk() {
+        return uncached.getImage(uncachedHandle);
+    }
+}
@@ -0,0 +1,57 @@
+package com.chat.quickchat.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 文本消息加密：EncryptionUtil 字符串接口(含 UTF-8 编码和 Base64)与直接缓冲区接口。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EncryptionBenchmark {
+
+    @Param({"64", "1024", "16384"})
+    private int size;
+
+    private String text;
+    private ByteBuffer input;
+    private ByteBuffer output;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        EncryptionUtil.setEngine(new CryptoEngine(new byte[32]));
+        text = "x".repeat(size);
+        input = ByteBuffer.allocateDirect(size).put(text.getBytes(StandardCharsets.UTF_8)).flip();
+        output = ByteBuffer.allocateDirect(CryptoEngine.encryptedSize(size));
+    }
+
+    @Benchmark
+    public String encrypt() {
+        return EncryptionUtil.encrypt(text);
+    }
+
+    @Benchmark
+    public int encryptDirectBuffer() {
+        input.rewind();
+        output.clear();
+        return EncryptionUtil.getEngine().encrypt(input, output);
+    }
+}
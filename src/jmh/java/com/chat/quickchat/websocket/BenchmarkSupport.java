@@ -0,0 +1,118 @@
+package com.chat.quickchat.websocket;
+
+import com.chat.quickchat.cluster.LocalBackplane;
+import com.chat.quickchat.metrics.ChatMetrics;
+import com.chat.quickchat.ratelimit.RateLimiter;
+import com.chat.quickchat.service.MessageLogService;
+import com.chat.quickchat.service.RoomBacklogService;
+import com.chat.quickchat.utils.CryptoEngine;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.websocket.RemoteEndpoint;
+import jakarta.websocket.SendHandler;
+import jakarta.websocket.SendResult;
+import jakarta.websocket.Session;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基准测试用的 WebSocketServer 依赖和假会话，不启动 Spring 容器。
+ */
+final class BenchmarkSupport {
+    private static final SendResult OK = new SendResult();
+    private static boolean initialized;
+
+    private BenchmarkSupport() {
+    }
+
+    static synchronized WebSocketServer server() {
+        WebSocketServer server = new WebSocketServer();
+        if (!initialized) {
+            RoomBacklogService backlog = new RoomBacklogService();
+            setField(backlog, "capacity", 100);
+            setField(backlog, "maxRooms", 10000);
+            setField(backlog, "maxRoomBytes", 1048576L);
+            setField(backlog, "maxBytes", 67108864L);
+            server.setRoomBacklogService(backlog);
+            // 未初始化的消息日志没有分片，写入直接忽略
+            server.setMessageLogService(new MessageLogService());
+            server.setBackplane(new LocalBackplane("benchmark"));
+            server.setCryptoEngine(new CryptoEngine(new byte[32]));
+            server.setDeflateCompression(new DeflateCompression(false, 0, true, true, 0));
+            RateLimiter rateLimiter = new RateLimiter(false, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0);
+            server.setRateLimiter(rateLimiter);
+            // 房间任务在调用线程上直接执行，测到的是房间处理本身的开销，加入房间后也能立即广播
+            server.setRoomShards(new RoomShards(1, 1, rateLimiter) {
+                @Override
+                public boolean execute(String roomId, Runnable task) {
+                    task.run();
+                    return true;
+                }
+
+                @Override
+                public void executeOrWait(String roomId, Runnable task) {
+                    task.run();
+                }
+            });
+            server.setMetrics(new ChatMetrics(new SimpleMeterRegistry(), 100));
+            initialized = true;
+        }
+        return server;
+    }
+
+    static void setField(Object target, String name, Object value) {
+        Field field = ReflectionUtils.findField(target.getClass(), name);
+        ReflectionUtils.makeAccessible(field);
+        ReflectionUtils.setField(field, target, value);
+    }
+
+    /**
+     * 异步发送立即以成功回调的会话，测到的是服务端自身的开销。
+     */
+    static Session session(String id) {
+        return session(id, Map.of());
+    }
+
+    static Session session(String id, Map<String, List<String>> parameters) {
+        ClassLoader loader = BenchmarkSupport.class.getClassLoader();
+        RemoteEndpoint.Async async = (RemoteEndpoint.Async) Proxy.newProxyInstance(loader,
+            new Class<?>[]{RemoteEndpoint.Async.class}, (proxy, method, args) -> {
+                if (("sendText".equals(method.getName()) || "sendBinary".equals(method.getName()))
+                        && args.length == 2) {
+                    ((SendHandler) args[1]).onResult(OK);
+                }
+                return null;
+            });
+        Map<String, Object> userProperties = new HashMap<>();
+        return (Session) Proxy.newProxyInstance(loader, new Class<?>[]{Session.class},
+            (proxy, method, args) -> switch (method.getName()) {
+                case "getId" -> id;
+                case "getAsyncRemote" -> async;
+                case "isOpen" -> true;
+                case "getUserProperties" -> userProperties;
+                case "getRequestParameterMap" -> parameters;
+                case "hashCode" -> System.identityHashCode(proxy);
+                case "equals" -> proxy == args[0];
+                default -> null;
+            });
+    }
+
+    static byte[] wireChatMessage(String chatCode, int contentLength) {
+        WireMessage message = new WireMessage();
+        message.setType(WireMessage.Type.CHAT);
+        message.setRoomId(chatCode);
+        message.setSender("benchmark-user");
+        message.setTimestamp(1700000000000L);
+        message.setPayloadText("x".repeat(contentLength));
+        return message.encode();
+    }
+
+    static String chatMessage(String chatCode, int contentLength) {
+        return "{\"type\":\"CHAT\",\"chatCode\":\"" + chatCode + "\",\"sender\":\"benchmark-user\","
+            + "\"content\":\"" + "x".repeat(contentLength) + "\",\"timestamp\":1700000000000}";
+    }
+}
@@ -0,0 +1,73 @@
+package com.chat.quickchat.websocket;
+
+import jakarta.websocket.Session;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * broadcastToRoom 的扇出开销：roomSize 为目标房间人数，rooms 为房间总数(总连接数 = roomSize * rooms)。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BroadcastBenchmark {
+
+    @Param({"10", "100", "1000"})
+    private int roomSize;
+
+    @Param({"1", "20"})
+    private int rooms;
+
+    private WebSocketServer server;
+    private final List<Session> sessions = new ArrayList<>();
+    private BroadcastFrame frame;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        server = BenchmarkSupport.server();
+        for (int room = 0; room < rooms; room++) {
+            for (int i = 0; i < roomSize; i++) {
+                Session session = BenchmarkSupport.session("s-" + room + "-" + i);
+                server.onOpen(session);
+                server.onMessage("{\"type\":\"JOIN\",\"chatCode\":\"room-" + room + "\"}", session);
+                sessions.add(session);
+            }
+        }
+        frame = BroadcastFrame.of(Map.of(
+            "type", "CHAT",
+            "chatCode", "room-0",
+            "sender", "benchmark-user",
+            "content", "x".repeat(100),
+            "timestamp", 1700000000000L));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        sessions.forEach(server::onClose);
+        sessions.clear();
+    }
+
+    @Benchmark
+    public void broadcastToRoom() {
+        WebSocketServer.broadcastToRoom("room-0", frame);
+    }
+}
@@ -0,0 +1,97 @@
+package com.chat.quickchat.websocket;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.websocket.Session;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * onMessage 的开销：parseToMap 只测 JSON 解析为 Map，parseRouting 只测流式读取路由字段，
+ * onMessage 测完整的解析、加密、广播和写入缓存。
+ * decodeWire、onWireMessage 是二进制协议下的对应路径；第一个会话使用二进制协议，其余为 JSON。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OnMessageBenchmark {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Param({"32", "1024"})
+    private int contentLength;
+
+    @Param({"1", "100"})
+    private int roomSize;
+
+    private WebSocketServer server;
+    private final List<Session> sessions = new ArrayList<>();
+    private String message;
+    private byte[] wireMessage;
+    private final WireMessage decoded = new WireMessage();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        server = BenchmarkSupport.server();
+        for (int i = 0; i < roomSize; i++) {
+            Session session = i == 0
+                ? BenchmarkSupport.session("m-" + i, Map.of("proto", List.of("bin")))
+                : BenchmarkSupport.session("m-" + i);
+            server.onOpen(session);
+            server.onMessage("{\"type\":\"JOIN\",\"chatCode\":\"bench-room\"}", session);
+            sessions.add(session);
+        }
+        message = BenchmarkSupport.chatMessage("bench-room", contentLength);
+        wireMessage = BenchmarkSupport.wireChatMessage("bench-room", contentLength);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        sessions.forEach(server::onClose);
+        sessions.clear();
+    }
+
+    @Benchmark
+    public Map<?, ?> parseToMap() throws Exception {
+        return objectMapper.readValue(message, Map.class);
+    }
+
+    @Benchmark
+    public JsonRouting parseRouting() throws Exception {
+        return JsonRouting.parse(message);
+    }
+
+    @Benchmark
+    public void onMessage() {
+        server.onMessage(message, sessions.get(0));
+    }
+
+    @Benchmark
+    public WireMessage decodeWire() throws Exception {
+        decoded.decode(ByteBuffer.wrap(wireMessage));
+        return decoded;
+    }
+
+    @Benchmark
+    public void onWireMessage() {
+        server.onBinaryMessage(ByteBuffer.wrap(wireMessage), true, sessions.get(0));
+    }
+}
@@ -0,0 +1,126 @@
+package com.chat.quickchat.loadtest;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 记录每条被跟踪消息的房间和发出时间，以及全局计数。
+ * 消息按全局序号编号，序号写在 sender 里(lg{连接号}#{序号})，服务端转发时原样保留，
+ * 接收方据此查到发出时间计算端到端延迟。发送结束后按各连接在房间内的时间段统计应收和实收，得出丢失数。
+ */
+final class DeliveryTracker {
+    private static final int PAGE_BITS = 16;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int MAX_PAGES = 1 << 12;
+    // 发送失败的消息不要求送达
+    private static final int NO_ROOM = -1;
+
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicReferenceArray<AtomicLongArray> sendNanos = new AtomicReferenceArray<>(MAX_PAGES);
+    private final AtomicReferenceArray<AtomicIntegerArray> rooms = new AtomicReferenceArray<>(MAX_PAGES);
+
+    final LatencyHistogram stompLatency = new LatencyHistogram();
+    final LatencyHistogram rawLatency = new LatencyHistogram();
+    final LongAdder chats = new LongAdder();
+    final LongAdder images = new LongAdder();
+    final LongAdder switches = new LongAdder();
+    final LongAdder skipped = new LongAdder();
+    final LongAdder sendFailures = new LongAdder();
+    final LongAdder uploadFailures = new LongAdder();
+    final LongAdder rejected = new LongAdder();
+    final LongAdder duplicates = new LongAdder();
+    final LongAdder connectFailures = new LongAdder();
+    final LongAdder disconnects = new LongAdder();
+
+    /**
+     * 登记一条即将发出的消息，返回它的序号
+     */
+    int register(int roomKey) {
+        int index = next.getAndIncrement();
+        int page = index >>> PAGE_BITS;
+        if (page >= MAX_PAGES) {
+            throw new IllegalStateException("被跟踪的消息数超过上限");
+        }
+        AtomicLongArray times = sendNanos.get(page);
+        if (times == null) {
+            // 先放房间页，看到时间页的线程一定也能看到房间页
+            rooms.compareAndSet(page, null, new AtomicIntegerArray(PAGE_SIZE));
+            sendNanos.compareAndSet(page, null, new AtomicLongArray(PAGE_SIZE));
+            times = sendNanos.get(page);
+        }
+        rooms.get(page).set(index & (PAGE_SIZE - 1), roomKey);
+        times.set(index & (PAGE_SIZE - 1), System.nanoTime());
+        return index;
+    }
+
+    void failed(int index) {
+        rooms.get(index >>> PAGE_BITS).set(index & (PAGE_SIZE - 1), NO_ROOM);
+        sendFailures.increment();
+    }
+
+    boolean isTracked(int index) {
+        return index >= 0 && index < next.get();
+    }
+
+    long sendNanos(int index) {
+        return sendNanos.get(index >>> PAGE_BITS).get(index & (PAGE_SIZE - 1));
+    }
+
+    int room(int index) {
+        return rooms.get(index >>> PAGE_BITS).get(index & (PAGE_SIZE - 1));
+    }
+
+    int getTrackedCount() {
+        return next.get();
+    }
+
+    /**
+     * 应收 = 每个连接在房间内(收到加入确认之后、离开前 settle 之前)该房间发出的消息数之和。
+     *
+     * @return {应收, 其中实收}
+     */
+    long[] countDeliveries(List<LoadClient> clients, int roomKeys, long settleNanos) {
+        int count = next.get();
+        // 按房间分组，计数排序
+        int[] offsets = new int[roomKeys + 1];
+        for (int i = 0; i < count; i++) {
+            int room = room(i);
+            if (room != NO_ROOM) {
+                offsets[room + 1]++;
+            }
+        }
+        for (int room = 0; room < roomKeys; room++) {
+            offsets[room + 1] += offsets[room];
+        }
+        int[] byRoom = new int[offsets[roomKeys]];
+        int[] fill = offsets.clone();
+        for (int i = 0; i < count; i++) {
+            int room = room(i);
+            if (room != NO_ROOM) {
+                byRoom[fill[room]++] = i;
+            }
+        }
+        long expected = 0;
+        long delivered = 0;
+        for (LoadClient client : clients) {
+            for (LoadClient.Membership membership : client.getMemberships()) {
+                long until = membership.leaveNanos == Long.MAX_VALUE ? Long.MAX_VALUE : membership.leaveNanos - settleNanos;
+                for (int k = offsets[membership.roomKey]; k < offsets[membership.roomKey + 1]; k++) {
+                    int index = byRoom[k];
+                    long sent = sendNanos(index);
+                    if (sent > membership.ackNanos && sent < until) {
+                        expected++;
+                        if (client.hasReceived(index)) {
+                            delivered++;
+                        }
+                    }
+                }
+            }
+        }
+        return new long[]{expected, delivered};
+    }
+}
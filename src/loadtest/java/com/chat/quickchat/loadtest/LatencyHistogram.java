@@ -0,0 +1,79 @@
+package com.chat.quickchat.loadtest;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 以微秒为单位的对数线性直方图：128 微秒以内精确到 1 微秒，之后每个 2 的幂区间分 64 档，相对误差约 1.5%。
+ * 多个接收线程并发记录，不加锁。
+ */
+final class LatencyHistogram {
+    private static final int SUB_BUCKETS = 64;
+    private static final int BUCKETS = SUB_BUCKETS * 64;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sumMicros = new LongAdder();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        counts.incrementAndGet(index(micros));
+        total.increment();
+        sumMicros.add(micros);
+        if (micros > maxMicros.get()) {
+            maxMicros.accumulateAndGet(micros, Math::max);
+        }
+    }
+
+    private static int index(long micros) {
+        if (micros < 2 * SUB_BUCKETS) {
+            return (int) micros;
+        }
+        // 右移后落在 [64, 128)，每个 shift 对应 64 档
+        int shift = 57 - Long.numberOfLeadingZeros(micros);
+        return (shift << 6) + (int) (micros >>> shift);
+    }
+
+    private static long lowerBound(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        return (long) (index - (shift << 6)) << shift;
+    }
+
+    long getCount() {
+        return total.sum();
+    }
+
+    double getMeanMillis() {
+        long count = total.sum();
+        return count == 0 ? 0 : sumMicros.sum() / 1000.0 / count;
+    }
+
+    double getMaxMillis() {
+        return maxMicros.get() / 1000.0;
+    }
+
+    /**
+     * @param percentile 0 到 100
+     * @return 对应分位所在档位的下界(毫秒)
+     */
+    double getPercentileMillis(double percentile) {
+        long count = total.sum();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return lowerBound(i) / 1000.0;
+            }
+        }
+        return getMaxMillis();
+    }
+}
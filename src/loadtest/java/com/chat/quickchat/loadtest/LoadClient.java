@@ -0,0 +1,283 @@
+package com.chat.quickchat.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 一个压测连接：加入房间、按比例发送聊天、图片和切换房间，统计收到的被跟踪消息。
+ * 发送由调度线程按固定频率调用 {@link #tick()}，同一连接的 tick 不会并发；接收在连接的 IO 线程上。
+ * 发出加入消息后、收到该房间的在线人数之前收到的消息，以及加入之前发出的消息(历史回放)，都不计入。
+ */
+abstract class LoadClient {
+    static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final String SENDER_PREFIX = "lg";
+
+    /**
+     * 连接在一个房间内的时间段，ackNanos 为收到加入确认的时间，还未离开时 leaveNanos 为 Long.MAX_VALUE
+     */
+    static final class Membership {
+        final int roomKey;
+        final long ackNanos;
+        volatile long leaveNanos = Long.MAX_VALUE;
+
+        Membership(int roomKey, long ackNanos) {
+            this.roomKey = roomKey;
+            this.ackNanos = ackNanos;
+        }
+    }
+
+    final int id;
+    final LoadOptions options;
+    final DeliveryTracker tracker;
+    private final String name;
+    private final String padding;
+    private final BitSet received = new BitSet();
+    private final List<Membership> memberships = new ArrayList<>();
+    // 当前房间及其在压测中的编号，两种协议的房间互不相通，编号分开
+    private volatile String room;
+    private volatile int roomKey = -1;
+    private volatile long joinNanos;
+    private volatile Membership current;
+
+    LoadClient(int id, LoadOptions options, DeliveryTracker tracker) {
+        this.id = id;
+        this.options = options;
+        this.tracker = tracker;
+        this.name = SENDER_PREFIX + id;
+        this.padding = "x".repeat(Math.max(0, options.messageBytes));
+    }
+
+    abstract boolean isRaw();
+
+    /**
+     * 建立连接并加入房间，失败时抛出异常
+     */
+    abstract void open(String room) throws Exception;
+
+    /**
+     * 离开当前房间并加入另一个房间
+     */
+    abstract void switchRoom(String room) throws Exception;
+
+    /**
+     * 准备图片消息的 content，STOMP 先上传拿到地址，原生连接内联 data URL
+     */
+    abstract String prepareImage() throws Exception;
+
+    abstract String imageMessage(int index, String content);
+
+    abstract void send(String json) throws Exception;
+
+    abstract void close();
+
+    String getRoom() {
+        return room;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int roomKey(int roomIndex) {
+        return isRaw() ? options.rooms + roomIndex : roomIndex;
+    }
+
+    /**
+     * 发出加入消息前调用，此后到收到在线人数之前的消息都当作回放
+     */
+    void beginJoin(String room, int roomIndex) {
+        leave();
+        this.room = room;
+        this.roomKey = roomKey(roomIndex);
+        this.joinNanos = System.nanoTime();
+    }
+
+    void leave() {
+        Membership membership = current;
+        current = null;
+        if (membership != null) {
+            membership.leaveNanos = System.nanoTime();
+        }
+        room = null;
+    }
+
+    boolean isJoined() {
+        return current != null;
+    }
+
+    synchronized List<Membership> getMemberships() {
+        return new ArrayList<>(memberships);
+    }
+
+    synchronized boolean hasReceived(int index) {
+        return received.get(index);
+    }
+
+    /**
+     * 按 --mix 的比例执行一次操作，还没有加入确认的连接跳过本次
+     */
+    void tick() {
+        if (!isJoined()) {
+            tracker.skipped.increment();
+            return;
+        }
+        int total = options.chatWeight + options.imageWeight + options.switchWeight;
+        int pick = ThreadLocalRandom.current().nextInt(total);
+        try {
+            if (pick < options.chatWeight) {
+                sendChat();
+            } else if (pick < options.chatWeight + options.imageWeight) {
+                sendImage();
+            } else {
+                int roomIndex = ThreadLocalRandom.current().nextInt(options.rooms);
+                switchRoom(options.roomName(roomIndex));
+                tracker.switches.increment();
+            }
+        } catch (Exception e) {
+            tracker.sendFailures.increment();
+        }
+    }
+
+    private void sendChat() {
+        int index = tracker.register(current.roomKey);
+        try {
+            send(message("CHAT", index, padding).toString());
+            tracker.chats.increment();
+        } catch (Exception e) {
+            tracker.failed(index);
+        }
+    }
+
+    /**
+     * 上传完成后才登记发出时间，延迟只算消息本身的投递；上传失败已单独计数
+     */
+    private void sendImage() {
+        String content;
+        try {
+            content = prepareImage();
+        } catch (Exception e) {
+            return;
+        }
+        Membership membership = current;
+        if (membership == null) {
+            return;
+        }
+        int index = tracker.register(membership.roomKey);
+        try {
+            send(imageMessage(index, content));
+            tracker.images.increment();
+        } catch (Exception e) {
+            tracker.failed(index);
+        }
+    }
+
+    /**
+     * 与 ChatRoom.vue 发出的字段一致，sender 带上消息序号
+     */
+    ObjectNode message(String type, int index, String content) {
+        ObjectNode message = objectMapper.createObjectNode();
+        message.put("chatCode", room);
+        message.put("sender", index >= 0 ? name + "#" + index : name);
+        message.put("content", content);
+        message.put("type", type);
+        message.put("timestamp", System.currentTimeMillis());
+        return message;
+    }
+
+    String joinMessage() {
+        return message("JOIN", -1, name + " 加入了聊天").toString();
+    }
+
+    /**
+     * 收到一帧，可能是合并帧(JSON 数组)
+     */
+    void onFrame(String text) {
+        long now = System.nanoTime();
+        JsonNode node;
+        try {
+            node = objectMapper.readTree(text);
+        } catch (IOException e) {
+            return;
+        }
+        if (node.isArray()) {
+            for (JsonNode element : node) {
+                onMessage(element, now);
+            }
+        } else {
+            onMessage(node, now);
+        }
+    }
+
+    private void onMessage(JsonNode message, long now) {
+        String type = message.path("type").asText();
+        String chatCode = message.path("chatCode").asText(null);
+        switch (type) {
+            case "REJECTED" -> tracker.rejected.increment();
+            case "ONLINE_COUNT" -> {
+                if (current == null && chatCode != null && chatCode.equals(room)) {
+                    acknowledge(now);
+                }
+            }
+            case "CHAT", "image" -> {
+                Membership membership = current;
+                if (membership == null || chatCode == null || !chatCode.equals(room)) {
+                    return;
+                }
+                int index = parseIndex(message.path("sender").asText(""));
+                if (!tracker.isTracked(index) || tracker.room(index) != membership.roomKey) {
+                    return;
+                }
+                // 在线人数的定时广播可能先于回放到达，加入前发出的消息只可能来自回放
+                long sent = tracker.sendNanos(index);
+                if (sent < joinNanos) {
+                    return;
+                }
+                synchronized (this) {
+                    if (received.get(index)) {
+                        tracker.duplicates.increment();
+                        return;
+                    }
+                    received.set(index);
+                }
+                (isRaw() ? tracker.rawLatency : tracker.stompLatency).record(now - sent);
+            }
+            default -> {
+            }
+        }
+    }
+
+    private synchronized void acknowledge(long now) {
+        Membership membership = new Membership(roomKey, now);
+        memberships.add(membership);
+        current = membership;
+    }
+
+    private static int parseIndex(String sender) {
+        int hash = sender.indexOf('#');
+        if (hash < 0 || !sender.startsWith(SENDER_PREFIX)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(sender, hash + 1, sender.length(), 10);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 连接断开，当前房间的时间段到此结束
+     */
+    void onDisconnected() {
+        if (current != null) {
+            tracker.disconnects.increment();
+        }
+        leave();
+    }
+}
@@ -0,0 +1,203 @@
+package com.chat.quickchat.loadtest;
+
+import jakarta.websocket.ContainerProvider;
+import jakarta.websocket.WebSocketContainer;
+import org.springframework.messaging.converter.SimpleMessageConverter;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+import org.springframework.web.socket.sockjs.client.SockJsClient;
+import org.springframework.web.socket.sockjs.client.WebSocketTransport;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 对本地实例压测：按 --ramp 逐步建立 STOMP 和原生 /ws 连接并轮流分到各房间，
+ * 每个连接按 --rate 的频率按 --mix 比例发送聊天、图片或切换房间，持续 --duration 秒，
+ * 等待 --drain 秒后输出投递延迟分位、吞吐、丢失和重复消息数。
+ * 用法: mvn -P loadtest compile exec:exec@loadtest -Dloadtest.args="--stomp 1000 --rooms 20"
+ */
+public final class LoadGenerator {
+    // 容器为每个连接按这个大小预先分配接收缓冲，取服务端合并帧上限的两倍
+    private static final int MAX_MESSAGE_BUFFER = 128 * 1024;
+
+    private LoadGenerator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadOptions options;
+        try {
+            options = LoadOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(LoadOptions.USAGE);
+            System.exit(2);
+            return;
+        }
+        DeliveryTracker tracker = new DeliveryTracker();
+        List<LoadClient> clients = createClients(options, tracker);
+        System.out.printf("压测 %s: STOMP %d 个连接, 原生 %d 个连接, 每种协议 %d 个房间, 每连接 %.2f 次/秒%n",
+            options.url, options.stompClients, options.rawClients, options.rooms, options.rate);
+
+        int connected = connect(options, clients, tracker);
+        System.out.printf("已建立 %d/%d 个连接, 开始发送 %d 秒%n", connected, clients.size(), options.durationSeconds);
+
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(options.threads);
+        long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / options.rate);
+        List<ScheduledFuture<?>> ticks = new ArrayList<>(clients.size());
+        long start = System.nanoTime();
+        for (LoadClient client : clients) {
+            // 随机错开起始时间，避免所有连接在同一时刻发送
+            long delay = ThreadLocalRandom.current().nextLong(periodNanos);
+            ticks.add(scheduler.scheduleAtFixedRate(client::tick, delay, periodNanos, TimeUnit.NANOSECONDS));
+        }
+        Thread.sleep(TimeUnit.SECONDS.toMillis(options.durationSeconds));
+        ticks.forEach(tick -> tick.cancel(false));
+        long sendNanos = System.nanoTime() - start;
+        scheduler.shutdown();
+        scheduler.awaitTermination(options.connectTimeoutSeconds, TimeUnit.SECONDS);
+        Thread.sleep(TimeUnit.SECONDS.toMillis(options.drainSeconds));
+
+        long[] deliveries = tracker.countDeliveries(clients, options.rooms * 2,
+            TimeUnit.MILLISECONDS.toNanos(options.settleMillis));
+        report(tracker, connected, clients.size(), connected * options.rate, sendNanos, deliveries);
+        clients.forEach(LoadClient::close);
+        System.exit(0);
+    }
+
+    private static List<LoadClient> createClients(LoadOptions options, DeliveryTracker tracker) throws IOException {
+        WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+        // 合并帧可能超过容器默认的 8KB 缓冲
+        container.setDefaultMaxTextMessageBufferSize(MAX_MESSAGE_BUFFER);
+        container.setDefaultMaxBinaryMessageBufferSize(MAX_MESSAGE_BUFFER);
+        StandardWebSocketClient webSocketClient = new StandardWebSocketClient(container);
+        WebSocketStompClient stompClient = new WebSocketStompClient(
+            new SockJsClient(List.of(new WebSocketTransport(webSocketClient))));
+        stompClient.setMessageConverter(new SimpleMessageConverter());
+        stompClient.setInboundMessageSizeLimit(MAX_MESSAGE_BUFFER);
+        HttpClient httpClient = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(options.connectTimeoutSeconds))
+            .build();
+        byte[] image = sampleImage();
+
+        List<LoadClient> clients = new ArrayList<>(options.stompClients + options.rawClients);
+        for (int i = 0; i < options.stompClients; i++) {
+            clients.add(new StompLoadClient(clients.size(), options, tracker, stompClient, httpClient, image));
+        }
+        for (int i = 0; i < options.rawClients; i++) {
+            clients.add(new RawLoadClient(clients.size(), options, tracker, webSocketClient, image));
+        }
+        return clients;
+    }
+
+    /**
+     * 一张很小的 PNG，服务端生成预览图时能正常解码
+     */
+    private static byte[] sampleImage() throws IOException {
+        BufferedImage image = new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < 16; x++) {
+            for (int y = 0; y < 16; y++) {
+                image.setRGB(x, y, (x * 16) << 16 | (y * 16) << 8);
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    /**
+     * 在 ramp 时间内均匀地发起连接，第 i 个连接加入第 i % rooms 个房间
+     */
+    private static int connect(LoadOptions options, List<LoadClient> clients, DeliveryTracker tracker)
+            throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(32);
+        CountDownLatch done = new CountDownLatch(clients.size());
+        AtomicInteger connected = new AtomicInteger();
+        long intervalNanos = clients.isEmpty() ? 0 : TimeUnit.SECONDS.toNanos(options.rampSeconds) / clients.size();
+        long start = System.nanoTime();
+        for (int i = 0; i < clients.size(); i++) {
+            LoadClient client = clients.get(i);
+            String room = options.roomName(i % options.rooms);
+            long wait = start + i * intervalNanos - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            executor.execute(() -> {
+                try {
+                    client.open(room);
+                    connected.incrementAndGet();
+                } catch (Exception e) {
+                    tracker.connectFailures.increment();
+                    if (tracker.connectFailures.sum() == 1) {
+                        System.err.println("连接失败: " + e);
+                    }
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        executor.shutdown();
+        // 等待最后一批连接收到加入确认
+        Thread.sleep(options.settleMillis);
+        return connected.get();
+    }
+
+    private static void report(DeliveryTracker tracker, int connected, int total, double targetRate, long sendNanos,
+                               long[] deliveries) {
+        double seconds = sendNanos / 1e9;
+        long sent = tracker.chats.sum() + tracker.images.sum();
+        long expected = deliveries[0];
+        long delivered = deliveries[1];
+        long received = tracker.stompLatency.getCount() + tracker.rawLatency.getCount();
+        System.out.println();
+        System.out.printf("连接: %d/%d 成功, 连接失败 %d, 发送期间断开 %d%n",
+            connected, total, tracker.connectFailures.sum(), tracker.disconnects.sum());
+        System.out.printf("发送: 聊天 %d, 图片 %d (上传失败 %d), 切换房间 %d, 发送失败 %d, 未加入而跳过 %d%n",
+            tracker.chats.sum(), tracker.images.sum(), tracker.uploadFailures.sum(), tracker.switches.sum(),
+            tracker.sendFailures.sum(), tracker.skipped.sum());
+        long operations = sent + tracker.switches.sum() + tracker.sendFailures.sum() + tracker.skipped.sum()
+            + tracker.uploadFailures.sum();
+        System.out.printf("吞吐: 操作 %.1f 次/秒(目标 %.1f), 发送 %.1f 条/秒, 投递 %.1f 条/秒%n",
+            operations / seconds, targetRate, sent / seconds, received / seconds);
+        if (operations / seconds < targetRate * 0.9) {
+            System.out.println("注意: 实际操作速率低于目标，压测端本身成了瓶颈，可调大 --threads 或减少连接数");
+        }
+        System.out.printf("投递: 应收 %d, 实收 %d, 丢失 %d (%.3f%%), 重复 %d, 限流拒绝帧 %d%n",
+            expected, delivered, expected - delivered,
+            expected == 0 ? 0 : 100.0 * (expected - delivered) / expected,
+            tracker.duplicates.sum(), tracker.rejected.sum());
+        if (tracker.rejected.sum() > 0) {
+            System.out.println("注意: 收到限流拒绝帧，被拒绝的消息计入丢失，测容量时请调高 ratelimit.* 限额");
+        }
+        if (tracker.uploadFailures.sum() > 0) {
+            System.out.println("注意: 图片上传按所属 STOMP 会话限流(ratelimit.session.images)，测容量时请调高图片限额");
+        }
+        printLatency("STOMP", tracker.stompLatency);
+        printLatency("原生", tracker.rawLatency);
+    }
+
+    private static void printLatency(String protocol, LatencyHistogram histogram) {
+        if (histogram.getCount() == 0) {
+            return;
+        }
+        System.out.printf("%s 延迟(毫秒): p50 %.2f, p90 %.2f, p99 %.2f, p99.9 %.2f, 最大 %.2f, 平均 %.2f (%d 条)%n",
+            protocol, histogram.getPercentileMillis(50), histogram.getPercentileMillis(90),
+            histogram.getPercentileMillis(99), histogram.getPercentileMillis(99.9),
+            histogram.getMaxMillis(), histogram.getMeanMillis(), histogram.getCount());
+    }
+}
@@ -0,0 +1,119 @@
+package com.chat.quickchat.loadtest;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 压测参数，命令行形如 --stomp 1000 --raw 200 --rooms 20 --rate 1 --mix chat:90,image:2,switch:8。
+ */
+final class LoadOptions {
+    static final String USAGE = """
+        参数(括号内为默认值):
+          --url <地址>          被测实例 (http://localhost:8080)
+          --stomp <n>           STOMP over SockJS 连接数 (100)
+          --raw <n>             原生 /ws 连接数，服务端需 websocket.raw.enabled=true (0)
+          --rooms <n>           每种协议的房间数，连接轮流分配 (10)
+          --room-prefix <s>     房间号前缀 (lt-)
+          --rate <n>            每个连接每秒的操作数 (1.0)
+          --mix <权重>          chat、image、switch 三种操作的比例 (chat:90,image:2,switch:8)
+          --message-bytes <n>   聊天内容的字节数 (64)
+          --batch               要求服务端合并发送
+          --ramp <秒>           建立全部连接所用的时间 (10)
+          --duration <秒>       发送阶段的时长 (30)
+          --drain <秒>          停止发送后等待在途消息的时间 (3)
+          --settle <毫秒>       离开房间前这段时间内发出的消息不要求送达 (1000)
+          --connect-timeout <秒> 单个连接的握手超时 (10)
+          --threads <n>         发送线程数，发送是阻塞的，连接多时需要调大 (32)
+        """;
+
+    String url = "http://localhost:8080";
+    int stompClients = 100;
+    int rawClients = 0;
+    int rooms = 10;
+    String roomPrefix = "lt-";
+    double rate = 1.0;
+    int chatWeight = 90;
+    int imageWeight = 2;
+    int switchWeight = 8;
+    int messageBytes = 64;
+    boolean batch;
+    int rampSeconds = 10;
+    int durationSeconds = 30;
+    int drainSeconds = 3;
+    long settleMillis = 1000;
+    int connectTimeoutSeconds = 10;
+    int threads = 32;
+
+    static LoadOptions parse(String[] args) {
+        LoadOptions options = new LoadOptions();
+        for (int i = 0; i < args.length; i++) {
+            String name = args[i];
+            if ("--batch".equals(name)) {
+                options.batch = true;
+                continue;
+            }
+            if (!name.startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("无法识别的参数: " + name);
+            }
+            String value = args[++i];
+            switch (name) {
+                case "--url" -> options.url = value.endsWith("/") ? value.substring(0, value.length() - 1) : value;
+                case "--stomp" -> options.stompClients = Integer.parseInt(value);
+                case "--raw" -> options.rawClients = Integer.parseInt(value);
+                case "--rooms" -> options.rooms = Math.max(1, Integer.parseInt(value));
+                case "--room-prefix" -> options.roomPrefix = value;
+                case "--rate" -> options.rate = Double.parseDouble(value);
+                case "--mix" -> options.parseMix(value);
+                case "--message-bytes" -> options.messageBytes = Integer.parseInt(value);
+                case "--ramp" -> options.rampSeconds = Integer.parseInt(value);
+                case "--duration" -> options.durationSeconds = Integer.parseInt(value);
+                case "--drain" -> options.drainSeconds = Integer.parseInt(value);
+                case "--settle" -> options.settleMillis = Long.parseLong(value);
+                case "--connect-timeout" -> options.connectTimeoutSeconds = Integer.parseInt(value);
+                case "--threads" -> options.threads = Math.max(1, Integer.parseInt(value));
+                default -> throw new IllegalArgumentException("无法识别的参数: " + name);
+            }
+        }
+        if (options.rate <= 0 || options.stompClients < 0 || options.rawClients < 0) {
+            throw new IllegalArgumentException("连接数不能为负，发送速率必须大于 0");
+        }
+        return options;
+    }
+
+    private void parseMix(String value) {
+        Map<String, Integer> weights = new HashMap<>();
+        for (String part : value.split(",")) {
+            String[] pair = part.split(":");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("无效的操作比例: " + part);
+            }
+            weights.put(pair[0].trim(), Integer.parseInt(pair[1].trim()));
+        }
+        chatWeight = weights.getOrDefault("chat", 0);
+        imageWeight = weights.getOrDefault("image", 0);
+        switchWeight = weights.getOrDefault("switch", 0);
+        if (chatWeight + imageWeight + switchWeight <= 0) {
+            throw new IllegalArgumentException("操作比例之和必须大于 0");
+        }
+    }
+
+    String stompUrl() {
+        return url + "/ws";
+    }
+
+    /**
+     * 原生端点只接受恰好是 /ws 的升级请求
+     */
+    URI rawUri() {
+        return URI.create(url.replaceFirst("^http", "ws") + "/ws" + (batch ? "?batch=1" : ""));
+    }
+
+    String uploadUrl() {
+        return url + "/api/chat/upload";
+    }
+
+    String roomName(int room) {
+        return roomPrefix + room;
+    }
+}
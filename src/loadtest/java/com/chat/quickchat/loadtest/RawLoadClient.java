@@ -0,0 +1,96 @@
+package com.chat.quickchat.loadtest;
+
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 原生 /ws 连接，使用 JSON 文本协议：发 JOIN 加入房间，切换房间时在同一连接上再发 JOIN，
+ * 图片以 data URL 内联在 type 为 image 的消息里，由服务端落盘后换成地址转发。
+ */
+final class RawLoadClient extends LoadClient {
+    private static final int SEND_TIME_LIMIT = 10000;
+    private static final int SEND_BUFFER_LIMIT = 512 * 1024;
+
+    private final StandardWebSocketClient webSocketClient;
+    private final String imageDataUrl;
+    private volatile WebSocketSession session;
+
+    RawLoadClient(int id, LoadOptions options, DeliveryTracker tracker, StandardWebSocketClient webSocketClient,
+                  byte[] image) {
+        super(id, options, tracker);
+        this.webSocketClient = webSocketClient;
+        this.imageDataUrl = "data:image/png;base64," + Base64.getEncoder().encodeToString(image);
+    }
+
+    @Override
+    boolean isRaw() {
+        return true;
+    }
+
+    @Override
+    void open(String room) throws Exception {
+        WebSocketSession connected = webSocketClient.execute(new TextWebSocketHandler() {
+                @Override
+                protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+                    onFrame(message.getPayload());
+                }
+
+                @Override
+                public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+                    onDisconnected();
+                }
+            }, new WebSocketHttpHeaders(), options.rawUri())
+            .get(options.connectTimeoutSeconds, TimeUnit.SECONDS);
+        // 调度线程和关闭时的主线程都会发送，需要串行化
+        session = new ConcurrentWebSocketSessionDecorator(connected, SEND_TIME_LIMIT, SEND_BUFFER_LIMIT);
+        switchRoom(room);
+    }
+
+    @Override
+    void switchRoom(String room) throws Exception {
+        beginJoin(room, Integer.parseInt(room.substring(options.roomPrefix.length())));
+        send(joinMessage());
+    }
+
+    @Override
+    String prepareImage() {
+        return imageDataUrl;
+    }
+
+    @Override
+    String imageMessage(int index, String content) {
+        return message("image", index, content).toString();
+    }
+
+    @Override
+    void send(String json) throws Exception {
+        WebSocketSession current = session;
+        if (current == null || !current.isOpen()) {
+            throw new IOException("连接未建立");
+        }
+        current.sendMessage(new TextMessage(json));
+    }
+
+    @Override
+    void close() {
+        leave();
+        WebSocketSession current = session;
+        session = null;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                // 连接已断开
+            }
+        }
+    }
+}
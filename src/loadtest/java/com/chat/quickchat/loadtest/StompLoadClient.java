@@ -0,0 +1,165 @@
+package com.chat.quickchat.loadtest;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * STOMP over SockJS 连接，行为与 ChatRoom.vue 一致：订阅 /chat/{房间} 后发 JOIN，
+ * 图片先经 HTTP 上传再发送带 imageFlag 的 CHAT，切换房间时断开重连。
+ * CONNECT 和上传带同一个上传标识，上传按各自的会话限流，不会因为共用本机地址互相挤占。
+ */
+final class StompLoadClient extends LoadClient {
+    private static final String TOPIC_PREFIX = "/chat/";
+    private static final String APP_PREFIX = "/app/chat/";
+    private static final String UPLOAD_KEY_HEADER = "x-upload-key";
+
+    private final WebSocketStompClient stompClient;
+    private final HttpClient httpClient;
+    private final byte[] image;
+    private final String uploadKey = UUID.randomUUID().toString();
+    private volatile StompSession session;
+
+    StompLoadClient(int id, LoadOptions options, DeliveryTracker tracker, WebSocketStompClient stompClient,
+                    HttpClient httpClient, byte[] image) {
+        super(id, options, tracker);
+        this.stompClient = stompClient;
+        this.httpClient = httpClient;
+        this.image = image;
+    }
+
+    @Override
+    boolean isRaw() {
+        return false;
+    }
+
+    @Override
+    void open(String room) throws Exception {
+        StompHeaders connectHeaders = new StompHeaders();
+        if (options.batch) {
+            connectHeaders.add("x-batch", "true");
+        }
+        connectHeaders.add(UPLOAD_KEY_HEADER, uploadKey);
+        StompSession connected = stompClient.connectAsync(options.stompUrl(), new WebSocketHttpHeaders(),
+                connectHeaders, new StompSessionHandlerAdapter() {
+                    @Override
+                    public void handleTransportError(StompSession session, Throwable exception) {
+                        if (session == StompLoadClient.this.session) {
+                            onDisconnected();
+                        }
+                    }
+
+                    @Override
+                    public void handleException(StompSession session, StompCommand command, StompHeaders headers,
+                                                byte[] payload, Throwable exception) {
+                        // 帧处理异常不影响连接
+                    }
+                })
+            .get(options.connectTimeoutSeconds, TimeUnit.SECONDS);
+        session = connected;
+        beginJoin(room, roomIndex(room));
+        connected.subscribe(TOPIC_PREFIX + room, new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return byte[].class;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                onFrame(new String((byte[]) payload, StandardCharsets.UTF_8));
+            }
+        });
+        send(joinMessage());
+    }
+
+    private int roomIndex(String room) {
+        return Integer.parseInt(room.substring(options.roomPrefix.length()));
+    }
+
+    @Override
+    void switchRoom(String room) throws Exception {
+        leave();
+        StompSession old = session;
+        session = null;
+        if (old != null && old.isConnected()) {
+            old.disconnect();
+        }
+        open(room);
+    }
+
+    @Override
+    String prepareImage() throws Exception {
+        String boundary = "lg-" + id + "-" + System.nanoTime();
+        ByteArrayOutputStream body = new ByteArrayOutputStream(image.length + 256);
+        body.writeBytes(("--" + boundary + "\r\nContent-Disposition: form-data; name=\"file\"; filename=\"lg.png\"\r\n"
+            + "Content-Type: image/png\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        body.writeBytes(image);
+        body.writeBytes(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        HttpRequest request = HttpRequest.newBuilder(URI.create(options.uploadUrl()))
+            .timeout(Duration.ofSeconds(options.connectTimeoutSeconds))
+            .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+            .header(UPLOAD_KEY_HEADER, uploadKey)
+            .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()))
+            .build();
+        HttpResponse<String> response;
+        try {
+            response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        } catch (IOException e) {
+            tracker.uploadFailures.increment();
+            throw e;
+        }
+        if (response.statusCode() != 200) {
+            tracker.uploadFailures.increment();
+            throw new IOException("图片上传失败: " + response.statusCode());
+        }
+        return objectMapper.readTree(response.body()).path("url").asText();
+    }
+
+    @Override
+    String imageMessage(int index, String content) {
+        ObjectNode message = message("CHAT", index, content);
+        message.put("imageFlag", true);
+        return message.toString();
+    }
+
+    @Override
+    void send(String json) throws Exception {
+        StompSession current = session;
+        String room = getRoom();
+        if (current == null || room == null) {
+            throw new IOException("连接未建立");
+        }
+        StompHeaders headers = new StompHeaders();
+        headers.setDestination(APP_PREFIX + room);
+        headers.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        current.send(headers, json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    void close() {
+        leave();
+        StompSession current = session;
+        session = null;
+        if (current != null && current.isConnected()) {
+            current.disconnect();
+        }
+    }
+}
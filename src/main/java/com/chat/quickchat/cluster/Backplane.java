@@ -0,0 +1,47 @@
+package com.chat.quickchat.cluster;
+
+/**
+ * 节点间的消息总线。
+ * topic 是房间在某种接入方式下的地址(STOMP 为 /chat/{房间}，原生 WebSocket 为 /ws/{房间})，
+ * 房间消息只转发给在该 topic 上有本地在线用户的节点；各节点上报本地在线人数，由此汇总全局在线人数。
+ */
+public interface Backplane {
+
+    String getNodeId();
+
+    /**
+     * 把已序列化的消息转发给其他关注该 topic 的节点，不会回送给本节点。
+     *
+     * @param durable 接收节点是否需要写入最近消息缓存和消息日志
+     */
+    void publish(String topic, byte[] payload, boolean durable);
+
+    /**
+     * 上报本节点在该 topic 上的在线人数，人数为 0 表示不再关注。
+     */
+    void updatePresence(String topic, int localCount);
+
+    /**
+     * @return 其他节点在该 topic 上的在线人数之和
+     */
+    int getRemoteCount(String topic);
+
+    void addListener(BackplaneListener listener);
+
+    /**
+     * @return 当前连接的其他节点数
+     */
+    default int getPeerCount() {
+        return 0;
+    }
+
+    /**
+     * @return 因发送队列已满而丢弃的帧数
+     */
+    default long getDroppedCount() {
+        return 0;
+    }
+
+    default void close() {
+    }
+}
@@ -0,0 +1,11 @@
+package com.chat.quickchat.cluster;
+
+/**
+ * 接收其他节点转发来的消息和在线人数变化，回调在总线的 IO 线程中执行，不应阻塞。
+ */
+public interface BackplaneListener {
+
+    void onMessage(String topic, byte[] payload, boolean durable);
+
+    void onPresenceChanged(String topic);
+}
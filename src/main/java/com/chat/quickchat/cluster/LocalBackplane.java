@@ -0,0 +1,34 @@
+package com.chat.quickchat.cluster;
+
+/**
+ * 单节点部署时使用的空实现，所有房间都在本进程内，不需要转发。
+ */
+public class LocalBackplane implements Backplane {
+    private final String nodeId;
+
+    public LocalBackplane(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public void publish(String topic, byte[] payload, boolean durable) {
+    }
+
+    @Override
+    public void updatePresence(String topic, int localCount) {
+    }
+
+    @Override
+    public int getRemoteCount(String topic) {
+        return 0;
+    }
+
+    @Override
+    public void addListener(BackplaneListener listener) {
+    }
+}
@@ -0,0 +1,456 @@
+package com.chat.quickchat.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于 TCP 的点对点总线，节点之间两两直连。
+ * 每个节点监听一个端口并主动连接配置中的其他节点，两端同时互连时只保留发起方节点 ID 较小的那条；
+ * 连接建立后先交换节点 ID 和随机数；配置了共享密钥时由发起方先发 AUTH，接收方校验通过后才回送自己的 AUTH，
+ * AUTH 为 HMAC(密钥, 角色 + 发起方随机数 + 接收方随机数 + 签名方 ID + 校验方 ID)，绑定了角色和两端随机数，
+ * 不能把一个节点算出的 AUTH 转发到另一条连接上冒充它。双方校验通过后才登记对端、发送本节点所有 topic 的在线人数，
+ * 之后按需转发房间消息。
+ * 没有配置密钥时只接受 peers 中地址(及本机)发起的连接。握手完成前收到其他帧直接断开。
+ * 帧格式: HELLO [1][节点ID][随机数]，PRESENCE [2][topic][人数]，MESSAGE [3][topic][durable][长度][消息]，AUTH [4][HMAC]。
+ */
+public class TcpBackplane implements Backplane {
+    private static final Logger logger = LoggerFactory.getLogger(TcpBackplane.class);
+    private static final byte HELLO = 1;
+    private static final byte PRESENCE = 2;
+    private static final byte MESSAGE = 3;
+    private static final byte AUTH = 4;
+    private static final int MAX_PAYLOAD_BYTES = 16 * 1024 * 1024;
+    private static final int CONNECT_TIMEOUT = 2000;
+    // 握手阶段的读超时，连上后一直不发 HELLO 的连接不会长期占用读线程
+    private static final int HANDSHAKE_TIMEOUT = 5000;
+    private static final int NONCE_BYTES = 16;
+    private static final int MAC_BYTES = 32;
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final String INITIATOR = "initiator";
+    private static final String RESPONDER = "responder";
+
+    private final String nodeId;
+    private final String bindHost;
+    private final int port;
+    private final byte[] secret;
+    private final SecureRandom random = new SecureRandom();
+    private final List<InetSocketAddress> peerAddresses;
+    private final long reconnectInterval;
+    private final int queueSize;
+
+    private final Map<String, TcpPeer> peers = new ConcurrentHashMap<>();
+    private final Map<InetSocketAddress, TcpPeer> dialed = new ConcurrentHashMap<>();
+    // 主动连接的地址对应的节点 ID，对端保留了反向连接时不再重复拨号
+    private final Map<InetSocketAddress, String> addressNodes = new ConcurrentHashMap<>();
+    private final Map<String, Integer> localPresence = new ConcurrentHashMap<>();
+    private final List<BackplaneListener> listeners = new CopyOnWriteArrayList<>();
+    private ServerSocket serverSocket;
+    private ScheduledExecutorService dialer;
+    private volatile boolean running;
+
+    /**
+     * @param bindHost 监听地址
+     * @param secret   节点间共享密钥，为空时改为按 peers 的地址校验入站连接
+     */
+    public TcpBackplane(String nodeId, String bindHost, int port, String secret, List<InetSocketAddress> peerAddresses,
+                        long reconnectInterval, int queueSize) {
+        this.nodeId = nodeId;
+        this.bindHost = bindHost;
+        this.port = port;
+        this.secret = secret == null || secret.isEmpty() ? null : secret.getBytes(StandardCharsets.UTF_8);
+        this.peerAddresses = peerAddresses;
+        this.reconnectInterval = reconnectInterval;
+        this.queueSize = queueSize;
+    }
+
+    public void start() throws IOException {
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(bindHost, port));
+        running = true;
+        Thread acceptor = new Thread(this::acceptLoop, "backplane-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        dialer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "backplane-dialer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dialer.scheduleWithFixedDelay(this::dialPeers, 0, reconnectInterval, TimeUnit.MILLISECONDS);
+        logger.info("节点总线已启动: nodeId={}, 监听 {}:{}, 校验方式: {}, peers={}",
+            nodeId, bindHost, port, secret != null ? "共享密钥" : "地址白名单", peerAddresses);
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                if (secret == null && !isAllowed(socket.getInetAddress())) {
+                    logger.warn("拒绝未配置地址的节点连接: {}", socket.getRemoteSocketAddress());
+                    socket.close();
+                    continue;
+                }
+                open(socket, false);
+            } catch (IOException e) {
+                if (running) {
+                    logger.warn("接受节点连接失败: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * 没有共享密钥时，入站连接只接受本机和 peers 中配置的地址，地址每次按当前解析结果比较。
+     */
+    private boolean isAllowed(InetAddress remote) {
+        if (remote.isLoopbackAddress()) {
+            return true;
+        }
+        for (InetSocketAddress address : peerAddresses) {
+            try {
+                for (InetAddress allowed : InetAddress.getAllByName(address.getHostString())) {
+                    if (allowed.equals(remote)) {
+                        return true;
+                    }
+                }
+            } catch (IOException e) {
+                logger.debug("解析节点地址失败: {}, {}", address, e.getMessage());
+            }
+        }
+        return false;
+    }
+
+    private void dialPeers() {
+        for (InetSocketAddress address : peerAddresses) {
+            TcpPeer current = dialed.get(address);
+            if (current != null && !current.isClosed()) {
+                continue;
+            }
+            String knownNode = addressNodes.get(address);
+            if (knownNode != null && peers.containsKey(knownNode)) {
+                continue;
+            }
+            Socket socket = new Socket();
+            try {
+                socket.connect(address, CONNECT_TIMEOUT);
+                TcpPeer peer = open(socket, true);
+                dialed.put(address, peer);
+            } catch (IOException e) {
+                logger.debug("连接节点失败: {}, {}", address, e.getMessage());
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private TcpPeer open(Socket socket, boolean outbound) throws IOException {
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout(HANDSHAKE_TIMEOUT);
+        TcpPeer peer = new TcpPeer(socket, outbound, queueSize);
+        byte[] nonce = new byte[NONCE_BYTES];
+        random.nextBytes(nonce);
+        peer.send(encodeHello(nodeId, nonce));
+        InetSocketAddress address = outbound ? (InetSocketAddress) socket.getRemoteSocketAddress() : null;
+        Thread reader = new Thread(() -> readLoop(peer, address, socket, nonce),
+            "backplane-reader-" + socket.getRemoteSocketAddress());
+        reader.setDaemon(true);
+        reader.start();
+        return peer;
+    }
+
+    /**
+     * @param nonce 本端在 HELLO 中发出的随机数，对端的 AUTH 必须基于它计算
+     */
+    private void readLoop(TcpPeer peer, InetSocketAddress dialedAddress, Socket socket, byte[] nonce) {
+        DataInputStream input = peer.getInput();
+        String helloId = null;
+        byte[] remoteNonce = null;
+        try {
+            while (!peer.isClosed()) {
+                byte type = input.readByte();
+                if (type == HELLO) {
+                    if (helloId != null) {
+                        throw new IOException("重复的 HELLO");
+                    }
+                    helloId = input.readUTF();
+                    remoteNonce = new byte[NONCE_BYTES];
+                    input.readFully(remoteNonce);
+                    if (secret == null) {
+                        completeHandshake(peer, helloId, dialedAddress, socket);
+                    } else if (peer.isOutbound()) {
+                        // 发起方先证明持有密钥；接收方要等发起方的 AUTH 校验通过后才回送，不替未验证的对端签名
+                        peer.send(encodeAuth(mac(INITIATOR, nonce, remoteNonce, nodeId, helloId)));
+                    }
+                    continue;
+                }
+                if (type == AUTH && secret != null && helloId != null && peer.getNodeId() == null) {
+                    byte[] remoteMac = new byte[MAC_BYTES];
+                    input.readFully(remoteMac);
+                    byte[] expected = peer.isOutbound()
+                        ? mac(RESPONDER, nonce, remoteNonce, helloId, nodeId)
+                        : mac(INITIATOR, remoteNonce, nonce, helloId, nodeId);
+                    if (!MessageDigest.isEqual(remoteMac, expected)) {
+                        logger.warn("节点密钥校验失败，断开: {}, {}", helloId, socket.getRemoteSocketAddress());
+                        return;
+                    }
+                    if (!peer.isOutbound()) {
+                        peer.send(encodeAuth(mac(RESPONDER, remoteNonce, nonce, nodeId, helloId)));
+                    }
+                    completeHandshake(peer, helloId, dialedAddress, socket);
+                    continue;
+                }
+                if (peer.getNodeId() == null) {
+                    throw new IOException("握手未完成，收到帧类型: " + type);
+                }
+                if (type == PRESENCE) {
+                    String topic = input.readUTF();
+                    peer.setRemoteCount(topic, input.readInt());
+                    notifyPresence(topic);
+                } else if (type == MESSAGE) {
+                    String topic = input.readUTF();
+                    boolean durable = input.readBoolean();
+                    int length = input.readInt();
+                    if (length < 0 || length > MAX_PAYLOAD_BYTES) {
+                        throw new IOException("消息长度非法: " + length);
+                    }
+                    byte[] payload = new byte[length];
+                    input.readFully(payload);
+                    for (BackplaneListener listener : listeners) {
+                        listener.onMessage(topic, payload, durable);
+                    }
+                } else {
+                    throw new IOException("未知帧类型: " + type);
+                }
+            }
+        } catch (IOException e) {
+            if (running && !peer.isClosed()) {
+                logger.debug("节点连接中断: {}, {}", peer.getNodeId(), e.getMessage());
+            }
+        } catch (RuntimeException e) {
+            logger.error("处理节点消息失败: {}", peer.getNodeId(), e);
+        } finally {
+            unregister(peer);
+        }
+    }
+
+    private void completeHandshake(TcpPeer peer, String remoteId, InetSocketAddress dialedAddress, Socket socket)
+            throws IOException {
+        socket.setSoTimeout(0);
+        if (dialedAddress != null) {
+            addressNodes.put(dialedAddress, remoteId);
+        }
+        register(peer, remoteId);
+    }
+
+    /**
+     * @param role     签名方在这条连接上的角色，发起方和接收方的 AUTH 不能互换
+     * @param signerId 算出这个 MAC 的节点
+     */
+    private byte[] mac(String role, byte[] initiatorNonce, byte[] responderNonce, String signerId, String verifierId) {
+        byte[] data = encode(output -> {
+            output.writeUTF(role);
+            output.write(initiatorNonce);
+            output.write(responderNonce);
+            output.writeUTF(signerId);
+            output.writeUTF(verifierId);
+        });
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(new SecretKeySpec(secret, MAC_ALGORITHM));
+            return mac.doFinal(data);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(MAC_ALGORITHM + " 不可用", e);
+        }
+    }
+
+    private synchronized void register(TcpPeer peer, String remoteId) {
+        if (nodeId.equals(remoteId)) {
+            // 配置里包含了自己的地址
+            peer.close();
+            return;
+        }
+        peer.setNodeId(remoteId);
+        TcpPeer existing = peers.get(remoteId);
+        if (existing != null && !existing.isClosed()) {
+            String existingInitiator = existing.isOutbound() ? nodeId : remoteId;
+            String peerInitiator = peer.isOutbound() ? nodeId : remoteId;
+            // 同一方重连时保留新连接，双方互连时两端都保留发起方 ID 较小的那条
+            if (!existingInitiator.equals(peerInitiator) && existingInitiator.compareTo(peerInitiator) < 0) {
+                peer.close();
+                return;
+            }
+            existing.close();
+        }
+        peers.put(remoteId, peer);
+        for (Map.Entry<String, Integer> entry : localPresence.entrySet()) {
+            peer.send(encodePresence(entry.getKey(), entry.getValue()));
+        }
+        logger.info("已连接节点: {}, 发起方: {}", remoteId, peer.isOutbound() ? "本节点" : "对端");
+    }
+
+    private void unregister(TcpPeer peer) {
+        peer.close();
+        String remoteId = peer.getNodeId();
+        if (remoteId == null || !peers.remove(remoteId, peer)) {
+            return;
+        }
+        logger.info("节点已断开: {}", remoteId);
+        // 对端下线后它上报的人数不再计入
+        List<String> topics = new ArrayList<>(peer.getRemoteTopics());
+        for (String topic : topics) {
+            peer.setRemoteCount(topic, 0);
+            notifyPresence(topic);
+        }
+    }
+
+    private void notifyPresence(String topic) {
+        for (BackplaneListener listener : listeners) {
+            listener.onPresenceChanged(topic);
+        }
+    }
+
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public void publish(String topic, byte[] payload, boolean durable) {
+        byte[] frame = null;
+        for (TcpPeer peer : peers.values()) {
+            // 只发给在该 topic 上有在线用户的节点
+            if (peer.getRemoteCount(topic) <= 0) {
+                continue;
+            }
+            if (frame == null) {
+                frame = encodeMessage(topic, payload, durable);
+            }
+            peer.send(frame);
+        }
+    }
+
+    @Override
+    public synchronized void updatePresence(String topic, int localCount) {
+        Integer previous = localCount > 0 ? localPresence.put(topic, localCount) : localPresence.remove(topic);
+        if (previous == null && localCount <= 0) {
+            return;
+        }
+        byte[] frame = encodePresence(topic, localCount);
+        for (TcpPeer peer : peers.values()) {
+            peer.send(frame);
+        }
+    }
+
+    @Override
+    public int getRemoteCount(String topic) {
+        int count = 0;
+        for (TcpPeer peer : peers.values()) {
+            count += peer.getRemoteCount(topic);
+        }
+        return count;
+    }
+
+    @Override
+    public void addListener(BackplaneListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public int getPeerCount() {
+        return peers.size();
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return peers.values().stream().mapToLong(TcpPeer::getDroppedCount).sum();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        if (dialer != null) {
+            dialer.shutdownNow();
+        }
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException ignored) {
+        }
+        peers.values().forEach(TcpPeer::close);
+        dialed.values().forEach(TcpPeer::close);
+    }
+
+    private static byte[] encodeHello(String nodeId, byte[] nonce) {
+        return encode(output -> {
+            output.writeByte(HELLO);
+            output.writeUTF(nodeId);
+            output.write(nonce);
+        });
+    }
+
+    private static byte[] encodeAuth(byte[] mac) {
+        return encode(output -> {
+            output.writeByte(AUTH);
+            output.write(mac);
+        });
+    }
+
+    private static byte[] encodePresence(String topic, int count) {
+        return encode(output -> {
+            output.writeByte(PRESENCE);
+            output.writeUTF(topic);
+            output.writeInt(count);
+        });
+    }
+
+    private static byte[] encodeMessage(String topic, byte[] payload, boolean durable) {
+        return encode(output -> {
+            output.writeByte(MESSAGE);
+            output.writeUTF(topic);
+            output.writeBoolean(durable);
+            output.writeInt(payload.length);
+            output.write(payload);
+        });
+    }
+
+    @FunctionalInterface
+    private interface FrameWriter {
+        void write(DataOutputStream output) throws IOException;
+    }
+
+    private static byte[] encode(FrameWriter writer) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try {
+            writer.write(new DataOutputStream(buffer));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return buffer.toByteArray();
+    }
+}
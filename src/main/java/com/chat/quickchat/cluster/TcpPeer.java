@@ -0,0 +1,130 @@
+package com.chat.quickchat.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 与另一个节点之间的一条 TCP 连接。
+ * 发送走有界队列和独立的写线程，队列满时丢弃并计数，不阻塞调用方；
+ * 同时记录对端上报的各 topic 在线人数。
+ */
+class TcpPeer {
+    private static final Logger logger = LoggerFactory.getLogger(TcpPeer.class);
+
+    private final Socket socket;
+    private final boolean outbound;
+    private final DataInputStream input;
+    private final OutputStream output;
+    private final BlockingQueue<byte[]> queue;
+    private final Map<String, Integer> remoteCounts = new ConcurrentHashMap<>();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final Thread writer;
+    private volatile String nodeId;
+    private volatile boolean closed;
+
+    TcpPeer(Socket socket, boolean outbound, int queueSize) throws IOException {
+        this.socket = socket;
+        this.outbound = outbound;
+        this.input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.output = new BufferedOutputStream(socket.getOutputStream());
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.writer = new Thread(this::writeLoop, "backplane-writer-" + socket.getRemoteSocketAddress());
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    void send(byte[] frame) {
+        if (closed) {
+            return;
+        }
+        if (!queue.offer(frame)) {
+            droppedCount.incrementAndGet();
+            logger.debug("节点发送队列已满，丢弃: {}", nodeId);
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (!closed) {
+                byte[] frame = queue.take();
+                output.write(frame);
+                // 把已排队的帧一起写出后再 flush，减少系统调用
+                while ((frame = queue.poll()) != null) {
+                    output.write(frame);
+                }
+                output.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            logger.debug("向节点写入失败: {}, {}", nodeId, e.getMessage());
+        } finally {
+            close();
+        }
+    }
+
+    DataInputStream getInput() {
+        return input;
+    }
+
+    boolean isOutbound() {
+        return outbound;
+    }
+
+    String getNodeId() {
+        return nodeId;
+    }
+
+    void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    void setRemoteCount(String topic, int count) {
+        if (count > 0) {
+            remoteCounts.put(topic, count);
+        } else {
+            remoteCounts.remove(topic);
+        }
+    }
+
+    int getRemoteCount(String topic) {
+        return remoteCounts.getOrDefault(topic, 0);
+    }
+
+    Set<String> getRemoteTopics() {
+        return remoteCounts.keySet();
+    }
+
+    long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        writer.interrupt();
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
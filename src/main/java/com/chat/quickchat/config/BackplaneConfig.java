@@ -0,0 +1,75 @@
+package com.chat.quickchat.config;
+
+import com.chat.quickchat.cluster.Backplane;
+import com.chat.quickchat.cluster.LocalBackplane;
+import com.chat.quickchat.cluster.TcpBackplane;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 节点总线配置。cluster.backplane=local 为单节点(默认)，tcp 时各节点按 cluster.tcp.peers 两两直连。
+ * 总线端口默认只监听本机；监听其他地址时应配置 cluster.secret，否则只接受 peers 中地址发起的连接。
+ */
+@Configuration
+public class BackplaneConfig {
+    private static final Logger logger = LoggerFactory.getLogger(BackplaneConfig.class);
+
+    @Value("${cluster.node-id:}")
+    private String nodeId;
+
+    private String resolveNodeId() {
+        if (StringUtils.hasText(nodeId)) {
+            return nodeId;
+        }
+        String generated = UUID.randomUUID().toString().substring(0, 8);
+        logger.info("未配置节点 ID，使用随机 ID: {}", generated);
+        return generated;
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "cluster.backplane", havingValue = "local", matchIfMissing = true)
+    public Backplane localBackplane() {
+        return new LocalBackplane(resolveNodeId());
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "cluster.backplane", havingValue = "tcp")
+    public Backplane tcpBackplane(@Value("${cluster.bind-host:127.0.0.1}") String bindHost,
+                                  @Value("${cluster.secret:}") String secret,
+                                  @Value("${cluster.tcp.port:9700}") int port,
+                                  @Value("${cluster.tcp.peers:}") String peers,
+                                  @Value("${cluster.tcp.reconnect-interval:3000}") long reconnectInterval,
+                                  @Value("${cluster.tcp.queue-size:10000}") int queueSize) throws IOException {
+        List<InetSocketAddress> addresses = Arrays.stream(peers.split(","))
+            .map(String::trim)
+            .filter(StringUtils::hasText)
+            .map(BackplaneConfig::parseAddress)
+            .toList();
+        if (!StringUtils.hasText(secret)) {
+            logger.warn("未配置 cluster.secret，节点总线只接受本机和 cluster.tcp.peers 中地址发起的连接，且连接不做身份校验");
+        }
+        TcpBackplane backplane = new TcpBackplane(resolveNodeId(), bindHost, port, secret, addresses,
+            reconnectInterval, queueSize);
+        backplane.start();
+        return backplane;
+    }
+
+    private static InetSocketAddress parseAddress(String address) {
+        int separator = address.lastIndexOf(':');
+        if (separator <= 0) {
+            throw new IllegalArgumentException("节点地址格式应为 host:port: " + address);
+        }
+        return new InetSocketAddress(address.substring(0, separator), Integer.parseInt(address.substring(separator + 1)));
+    }
+}
@@ -0,0 +1,58 @@
+package com.chat.quickchat.config;
+
+import com.chat.quickchat.websocket.DeflateCompression;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Enumeration;
+
+/**
+ * WebSocket 握手请求按压缩配置改写 Sec-WebSocket-Extensions 请求头。
+ * Tomcat 升级连接时直接读取请求头协商扩展，STOMP(含 SockJS 的 websocket 传输)和原生 /ws 都经过这里。
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class CompressionHandshakeFilter extends OncePerRequestFilter {
+    private static final String EXTENSIONS_HEADER = "Sec-WebSocket-Extensions";
+
+    private final DeflateCompression compression;
+
+    public CompressionHandshakeFilter(DeflateCompression compression) {
+        this.compression = compression;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !"websocket".equalsIgnoreCase(request.getHeader("Upgrade"))
+            || request.getHeader(EXTENSIONS_HEADER) == null;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String offer = compression.rewriteOffer(String.join(",", Collections.list(request.getHeaders(EXTENSIONS_HEADER))));
+        chain.doFilter(new HttpServletRequestWrapper(request) {
+            @Override
+            public String getHeader(String name) {
+                return EXTENSIONS_HEADER.equalsIgnoreCase(name) ? offer : super.getHeader(name);
+            }
+
+            @Override
+            public Enumeration<String> getHeaders(String name) {
+                if (!EXTENSIONS_HEADER.equalsIgnoreCase(name)) {
+                    return super.getHeaders(name);
+                }
+                return offer == null ? Collections.emptyEnumeration() : Collections.enumeration(Collections.singletonList(offer));
+            }
+        }, response);
+    }
+}
@@ -0,0 +1,43 @@
+package com.chat.quickchat.config;
+
+import com.chat.quickchat.utils.CryptoEngine;
+import com.chat.quickchat.utils.EncryptionUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.StringUtils;
+
+import java.util.Base64;
+
+@Configuration
+public class CryptoConfig {
+    private static final Logger logger = LoggerFactory.getLogger(CryptoConfig.class);
+
+    /**
+     * 多节点部署时各节点必须使用同一密钥，未配置 crypto.key 时拒绝启动；
+     * 单节点开启消息日志时只告警，随机密钥下重启前写入的历史消息将无法解密。
+     */
+    @Bean
+    public CryptoEngine cryptoEngine(@Value("${crypto.key:}") String key,
+                                     @Value("${cluster.backplane:local}") String backplane,
+                                     @Value("${chat.log.enabled:true}") boolean logEnabled) {
+        byte[] keyBytes;
+        if (StringUtils.hasText(key)) {
+            keyBytes = Base64.getDecoder().decode(key.trim());
+        } else if ("tcp".equals(backplane)) {
+            throw new IllegalStateException("cluster.backplane=tcp 时必须配置 crypto.key，否则各节点用各自的随机密钥加密，互相无法解密");
+        } else {
+            if (logEnabled) {
+                logger.error("未配置 crypto.key，使用随机生成的临时密钥；消息日志已开启，重启后之前持久化的加密消息将无法解密，请在 crypto.key 中配置固定密钥");
+            } else {
+                logger.warn("未配置 crypto.key，使用随机生成的临时密钥");
+            }
+            keyBytes = CryptoEngine.generateKey();
+        }
+        CryptoEngine engine = new CryptoEngine(keyBytes);
+        EncryptionUtil.setEngine(engine);
+        return engine;
+    }
+}
@@ -0,0 +1,21 @@
+package com.chat.quickchat.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.server.standard.ServerEndpointExporter;
+
+/**
+ * 原生 /ws 端点(WebSocketServer)的注册。端点默认不开启，websocket.raw.enabled=true 时才交给容器，
+ * 未开启时原生 /ws 的房间分片、出站队列、二进制协议、压缩等都不生效，前端只走 STOMP。
+ * 容器只接管路径恰好为 /ws 的升级请求，SockJS 的 /ws/** 不受影响。
+ */
+@Configuration
+@ConditionalOnProperty(name = "websocket.raw.enabled", havingValue = "true")
+public class RawWebSocketConfig {
+
+    @Bean
+    public ServerEndpointExporter serverEndpointExporter() {
+        return new ServerEndpointExporter();
+    }
+}
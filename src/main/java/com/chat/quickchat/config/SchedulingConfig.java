@@ -1,18 +1,37 @@
 package com.chat.quickchat.config;
 
+import jakarta.annotation.PreDestroy;
+import org.springframework.boot.task.TaskSchedulerBuilder;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.annotation.SchedulingConfigurer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 import org.springframework.scheduling.config.ScheduledTaskRegistrar;
 
-import java.util.concurrent.Executors;
-
+/**
+ * 定时任务的调度器按 spring.task.scheduling.* 创建(线程数、线程名前缀、关闭时等待)。
+ * STOMP 自带的 messageBrokerTaskScheduler 也是 TaskScheduler，Spring Boot 因此不会自动创建调度器，需要在这里显式指定。
+ */
 @Configuration
 @EnableScheduling
 public class SchedulingConfig implements SchedulingConfigurer {
-    
+    private final ThreadPoolTaskScheduler taskScheduler;
+
+    public SchedulingConfig(TaskSchedulerBuilder builder, ThreadingConfig threadingConfig) {
+        taskScheduler = builder.build();
+        if (threadingConfig.isVirtualThreads()) {
+            taskScheduler.setThreadFactory(Thread.ofVirtual().name(taskScheduler.getThreadNamePrefix(), 0).factory());
+        }
+        taskScheduler.initialize();
+    }
+
     @Override
     public void configureTasks(ScheduledTaskRegistrar taskRegistrar) {
-        taskRegistrar.setScheduler(Executors.newScheduledThreadPool(5));
+        taskRegistrar.setTaskScheduler(taskScheduler);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        taskScheduler.destroy();
     }
-} 
\ No newline at end of file
+}
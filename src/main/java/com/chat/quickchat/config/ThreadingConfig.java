@@ -0,0 +1,43 @@
+package com.chat.quickchat.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.Executors;
+
+/**
+ * 线程模式。threads.virtual.enabled=true 时，Tomcat 请求与 WebSocket 处理、STOMP 通道和定时任务改用虚拟线程；
+ * 否则保持平台线程。
+ */
+@Configuration
+public class ThreadingConfig {
+    private static final Logger logger = LoggerFactory.getLogger(ThreadingConfig.class);
+
+    private final boolean virtualThreads;
+
+    public ThreadingConfig(@Value("${threads.virtual.enabled:false}") boolean enabled) {
+        this.virtualThreads = enabled;
+        logger.info("线程模式: {}", virtualThreads ? "虚拟线程" : "平台线程");
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * 每个请求、每条 WebSocket 消息都在新的虚拟线程上处理，替换 Tomcat 的工作线程池。
+     */
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer() {
+        return protocolHandler -> {
+            if (virtualThreads) {
+                protocolHandler.setExecutor(Executors.newThreadPerTaskExecutor(
+                    Thread.ofVirtual().name("tomcat-handler-", 0).factory()));
+            }
+        };
+    }
+}
@@ -1,25 +1,57 @@
 package com.chat.quickchat.config;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.messaging.simp.config.TaskExecutorRegistration;
 import org.springframework.messaging.simp.stomp.StompCommand;
 import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
 import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import com.chat.quickchat.cluster.Backplane;
+import com.chat.quickchat.cluster.BackplaneListener;
+import com.chat.quickchat.metrics.ChatMetrics;
+import com.chat.quickchat.metrics.FanoutChannelInterceptor;
 import com.chat.quickchat.model.ChatMessage;
+import com.chat.quickchat.ratelimit.RateLimiter;
+import com.chat.quickchat.ratelimit.Rejection;
+import com.chat.quickchat.ratelimit.TokenBuckets;
+import com.chat.quickchat.service.MessageLogService;
+import com.chat.quickchat.service.RoomBacklogService;
+import com.chat.quickchat.websocket.BroadcastFrame;
+import com.chat.quickchat.websocket.DeflateCompression;
+import com.chat.quickchat.websocket.PresenceCoalescer;
+import com.chat.quickchat.websocket.RoomRegistry;
+import com.chat.quickchat.websocket.StompOutboundBatcher;
+import jakarta.annotation.PreDestroy;
+import jakarta.websocket.Session;
 
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
 
 @Configuration
 @EnableWebSocketMessageBroker
@@ -27,22 +59,243 @@ import java.util.concurrent.ConcurrentHashMap;
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer, ApplicationContextAware {
 
     private ApplicationContext applicationContext;
-    private static final Map<String, String> userRooms = new ConcurrentHashMap<>();
-    private static final Map<String, Integer> roomOnlineCount = new ConcurrentHashMap<>();
+    private static final RoomRegistry roomRegistry = new RoomRegistry();
+    private static final String TOPIC_PREFIX = "/chat/";
+    private static final String APP_PREFIX = "/app";
+    private static final String RATE_LIMIT_KEY = "rateLimitBuckets";
+    // 会话 CONNECT 时带的上传标识，断开时解除绑定
+    private static final String UPLOAD_KEY = "uploadKey";
+    // 会话订阅的房间 {subscriptionId, destination}，拒绝帧沿这个订阅发回
+    private static final String ROOM_SUBSCRIPTION_KEY = "roomSubscription";
+    // 准入检查累加积压量的通道执行器
+    private static final String[] CHANNEL_EXECUTORS =
+        {"clientInboundChannelExecutor", "clientOutboundChannelExecutor", "brokerChannelExecutor"};
+    private static final PresenceCoalescer presence = new PresenceCoalescer();
+    private static Backplane backplane;
+    private ChatMetrics metrics;
+    private DeflateCompression deflateCompression;
+    private RateLimiter rateLimiter;
+
+    @Value("${websocket.batch.enabled:true}")
+    private boolean batchEnabled;
+
+    @Value("${websocket.batch.window:20}")
+    private long batchWindow;
+
+    @Value("${websocket.batch.max-bytes:65536}")
+    private int batchMaxBytes;
+
+    @Value("${threads.virtual.channel-pool-size:256}")
+    private int virtualChannelPoolSize;
+
+    // 通道执行器，0 表示使用框架默认值
+    @Value("${websocket.channel.inbound.core-pool-size:0}")
+    private int inboundCorePoolSize;
+
+    @Value("${websocket.channel.inbound.max-pool-size:0}")
+    private int inboundMaxPoolSize;
+
+    @Value("${websocket.channel.inbound.queue-capacity:0}")
+    private int inboundQueueCapacity;
+
+    @Value("${websocket.channel.outbound.core-pool-size:0}")
+    private int outboundCorePoolSize;
+
+    @Value("${websocket.channel.outbound.max-pool-size:0}")
+    private int outboundMaxPoolSize;
+
+    @Value("${websocket.channel.outbound.queue-capacity:0}")
+    private int outboundQueueCapacity;
+
+    @Value("${websocket.channel.broker.core-pool-size:0}")
+    private int brokerCorePoolSize;
+
+    @Value("${websocket.channel.broker.max-pool-size:0}")
+    private int brokerMaxPoolSize;
+
+    @Value("${websocket.channel.broker.queue-capacity:0}")
+    private int brokerQueueCapacity;
+
+    @Value("${websocket.transport.message-size-limit:65536}")
+    private int messageSizeLimit;
+
+    @Value("${websocket.transport.send-buffer-size-limit:524288}")
+    private int sendBufferSizeLimit;
+
+    @Value("${websocket.transport.send-time-limit:10000}")
+    private int sendTimeLimit;
+
+    @Value("${websocket.transport.time-to-first-message:60000}")
+    private int timeToFirstMessage;
+
+    @Value("${websocket.presence.queue-capacity:10000}")
+    private int presenceQueueCapacity;
+
+    private StompOutboundBatcher outboundBatcher;
+    private ThreadingConfig threadingConfig;
+    private ThreadPoolTaskExecutor presenceExecutor;
 
     @Override
     public void setApplicationContext(ApplicationContext applicationContext) {
         this.applicationContext = applicationContext;
     }
 
+    /**
+     * 接入节点总线：其他节点转发来的消息交给本节点的 broker 分发，人数变化时刷新本节点房间的在线人数。
+     */
+    @Autowired
+    public void setBackplane(Backplane backplane) {
+        WebSocketConfig.backplane = backplane;
+        backplane.addListener(new BackplaneListener() {
+            @Override
+            public void onMessage(String topic, byte[] payload, boolean durable) {
+                if (!topic.startsWith(TOPIC_PREFIX)) {
+                    return;
+                }
+                getMessagingTemplate().send(topic, BroadcastFrame.ofPayload(payload).toMessage());
+                if (durable) {
+                    // 缓存和日志按目的地存放，与原生 /ws 的同名房间区分
+                    applicationContext.getBean(RoomBacklogService.class).append(topic, payload);
+                    applicationContext.getBean(MessageLogService.class).append(topic, payload);
+                }
+            }
+
+            @Override
+            public void onPresenceChanged(String topic) {
+                if (!topic.startsWith(TOPIC_PREFIX)) {
+                    return;
+                }
+                presence.markDirty(topic.substring(TOPIC_PREFIX.length()));
+            }
+        });
+    }
+
+    /**
+     * STOMP 会话只统计已加入房间的会话。
+     */
+    @Autowired
+    public void setMetrics(ChatMetrics metrics) {
+        this.metrics = metrics;
+        metrics.gauge("chat.sessions", "在线会话数", ChatMetrics.STOMP, roomRegistry, RoomRegistry::getSessionCount);
+        metrics.gauge("chat.rooms", "有在线成员的房间数", ChatMetrics.STOMP, roomRegistry, RoomRegistry::getRoomCount);
+        metrics.trackRooms(ChatMetrics.STOMP, roomRegistry::hasRoom);
+    }
+
+    private static void applyExecutorSettings(TaskExecutorRegistration registration,
+                                              int corePoolSize, int maxPoolSize, int queueCapacity) {
+        if (corePoolSize > 0) {
+            registration.corePoolSize(corePoolSize);
+        }
+        if (maxPoolSize > 0) {
+            registration.maxPoolSize(maxPoolSize);
+        }
+        if (queueCapacity > 0) {
+            registration.queueCapacity(queueCapacity);
+        }
+    }
+
+    private TaskExecutorRegistration channelExecutor(ChannelRegistration registration, String prefix) {
+        return threadingConfig.isVirtualThreads()
+            ? registration.taskExecutor(virtualChannelExecutor(prefix))
+            : registration.taskExecutor();
+    }
+
+    @Autowired
+    public void setDeflateCompression(DeflateCompression deflateCompression) {
+        this.deflateCompression = deflateCompression;
+    }
+
+    @Autowired
+    public void setRateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * 通道执行器在上下文刷新后才可用，这时把它们的队列长度登记为准入检查的积压量来源。
+     */
+    @EventListener(ContextRefreshedEvent.class)
+    public void registerLoadSources() {
+        for (String name : CHANNEL_EXECUTORS) {
+            if (applicationContext.containsBean(name)) {
+                ThreadPoolTaskExecutor executor = applicationContext.getBean(name, ThreadPoolTaskExecutor.class);
+                rateLimiter.addLoadSource(() -> executor.getThreadPoolExecutor().getQueue().size());
+            }
+        }
+    }
+
+    @Autowired
+    public void setThreadingConfig(ThreadingConfig threadingConfig) {
+        this.threadingConfig = threadingConfig;
+    }
+
+    /**
+     * 虚拟线程模式下的通道执行器：线程按需创建、空闲回收，线程数上限可以远大于 CPU 核数，
+     * 阻塞在会话写出上的任务不再占满少量平台线程。
+     */
+    private ThreadPoolTaskExecutor virtualChannelExecutor(String prefix) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadFactory(Thread.ofVirtual().name(prefix, 0).factory());
+        executor.setCorePoolSize(virtualChannelPoolSize);
+        executor.setMaxPoolSize(virtualChannelPoolSize);
+        executor.setAllowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     private SimpMessagingTemplate getMessagingTemplate() {
         return applicationContext.getBean(SimpMessagingTemplate.class);
     }
 
+    /**
+     * 把房间最近的消息直接发给刚订阅的会话，不经过 broker 广播。
+     * 回放的消息带 x-replay 头，客户端据此去重且不发通知。
+     */
+    private void replayBacklog(String sessionId, String subscriptionId, String destination, String roomId) {
+        List<byte[]> backlog = applicationContext.getBean(RoomBacklogService.class).recent(destination);
+        if (backlog.isEmpty()) {
+            return;
+        }
+        MessageChannel outboundChannel = applicationContext.getBean("clientOutboundChannel", MessageChannel.class);
+        for (byte[] payload : backlog) {
+            SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+            accessor.setSessionId(sessionId);
+            accessor.setSubscriptionId(subscriptionId);
+            accessor.setDestination(destination);
+            accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+            accessor.setNativeHeader("x-replay", "true");
+            accessor.setLeaveMutable(true);
+            outboundChannel.send(MessageBuilder.createMessage(payload, accessor.getMessageHeaders()));
+        }
+        log.info("回放房间历史消息: sessionId={}, roomId={}, count={}", sessionId, roomId, backlog.size());
+    }
+
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
         config.enableSimpleBroker("/chat");
-        config.setApplicationDestinationPrefixes("/app");
+        config.setApplicationDestinationPrefixes(APP_PREFIX);
+        // 默认在发送线程上同步分发，配置了线程数才改为异步
+        if (brokerCorePoolSize > 0) {
+            applyExecutorSettings(channelExecutor(config.configureBrokerChannel(), "brokerChannel-"),
+                brokerCorePoolSize, brokerMaxPoolSize, brokerQueueCapacity);
+        }
+        config.configureBrokerChannel().interceptors(new FanoutChannelInterceptor.BrokerChannel());
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        registration.setMessageSizeLimit(messageSizeLimit)
+            .setSendBufferSizeLimit(sendBufferSizeLimit)
+            .setSendTimeLimit(sendTimeLimit)
+            .setTimeToFirstMessage(timeToFirstMessage)
+            // 建连后接管协商了 permessage-deflate 的会话的出站压缩，SockJS 的非 websocket 传输没有原生会话
+            .addDecoratorFactory(handler -> new WebSocketHandlerDecorator(handler) {
+                @Override
+                public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                    if (session instanceof NativeWebSocketSession nativeSession) {
+                        deflateCompression.install(nativeSession.getNativeSession(Session.class));
+                    }
+                    super.afterConnectionEstablished(session);
+                }
+            });
     }
 
     @Override
@@ -53,8 +306,78 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer, Applic
             .setClientLibraryUrl("https://cdn.jsdelivr.net/npm/sockjs-client@1/dist/sockjs.min.js");
     }
 
+    /**
+     * 按节拍刷新人数有变化的房间：上报给节点总线，并向本节点的订阅者广播最新的全局在线人数。
+     */
+    @Scheduled(fixedRateString = "${websocket.presence.tick-interval:1000}")
+    public void flushPresence() {
+        int flushed = presence.flush(roomId -> {
+            int localCount = roomRegistry.getOnlineCount(roomId);
+            backplane.updatePresence(TOPIC_PREFIX + roomId, localCount);
+            if (localCount > 0) {
+                broadcastOnlineCount(roomId);
+            } else {
+                metrics.roomClosed(ChatMetrics.STOMP, roomId);
+            }
+        });
+        if (flushed > 0) {
+            log.debug("刷新房间在线人数: {} 个房间", flushed);
+        }
+    }
+
+    /**
+     * 把当前在线人数直接发给刚订阅的会话，不必等下一拍广播。
+     */
+    private void sendOnlineCount(String sessionId, String subscriptionId, String destination, String roomId) {
+        ChatMessage message = new ChatMessage();
+        message.setChatCode(roomId);
+        message.setType(ChatMessage.MessageType.ONLINE_COUNT);
+        message.setContent(String.valueOf(getRoomOnlineCount(roomId)));
+        message.setTimestamp(System.currentTimeMillis());
+
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.setDestination(destination);
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        accessor.setLeaveMutable(true);
+        applicationContext.getBean("clientOutboundChannel", MessageChannel.class)
+            .send(MessageBuilder.createMessage(BroadcastFrame.of(message).getPayload(), accessor.getMessageHeaders()));
+    }
+
+    /**
+     * 发往 /app/chat/{房间} 的消息由控制器广播到 /chat/{房间}，直接发往 broker 的目的地原样使用。
+     */
+    private static String roomTopic(String destination) {
+        return destination != null && destination.startsWith(APP_PREFIX + TOPIC_PREFIX)
+            ? destination.substring(APP_PREFIX.length()) : destination;
+    }
+
+    /**
+     * 把拒绝帧沿会话的房间订阅发回，还没有订阅房间的会话收不到拒绝帧。
+     */
+    private void sendRejected(String sessionId, Map<String, Object> sessionAttributes, TokenBuckets buckets,
+                              Rejection rejection, String destination) {
+        String[] subscription = (String[]) sessionAttributes.get(ROOM_SUBSCRIPTION_KEY);
+        if (subscription == null || !rateLimiter.shouldNotify(buckets)) {
+            return;
+        }
+        String roomId = subscription[1].substring(TOPIC_PREFIX.length());
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscription[0]);
+        accessor.setDestination(subscription[1]);
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        accessor.setLeaveMutable(true);
+        byte[] payload = BroadcastFrame.of(rateLimiter.rejectMessage(rejection, roomId, buckets)).getPayload();
+        applicationContext.getBean("clientOutboundChannel", MessageChannel.class)
+            .send(MessageBuilder.createMessage(payload, accessor.getMessageHeaders()));
+        log.debug("消息被限流: sessionId={}, destination={}, scope={}, limit={}",
+            sessionId, destination, rejection.getScope(), rejection.getLimit());
+    }
+
     private void broadcastOnlineCount(String roomId) {
-        int count = roomOnlineCount.getOrDefault(roomId, 0);
+        int count = getRoomOnlineCount(roomId);
         log.info("广播在线人数: roomId={}, count={}", roomId, count);
         
         ChatMessage message = new ChatMessage();
@@ -63,11 +386,77 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer, Applic
         message.setContent(String.valueOf(count));
         message.setTimestamp(System.currentTimeMillis());
         
-        getMessagingTemplate().convertAndSend("/chat/" + roomId, message);
+        getMessagingTemplate().send("/chat/" + roomId, BroadcastFrame.of(message).toMessage());
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        applyExecutorSettings(channelExecutor(registration, "clientOutboundChannel-"),
+            outboundCorePoolSize, outboundMaxPoolSize, outboundQueueCapacity);
+        // 扇出计时必须排在合并发送之前，暂存的消息也要先计入
+        registration.interceptors(new FanoutChannelInterceptor(metrics));
+        if (batchEnabled) {
+            outboundBatcher = new StompOutboundBatcher(batchWindow, batchMaxBytes);
+            registration.interceptors(outboundBatcher);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (outboundBatcher != null) {
+            outboundBatcher.shutdown();
+        }
+        if (presenceExecutor != null) {
+            presenceExecutor.shutdown();
+        }
+    }
+
+    /**
+     * 订阅、断开后的房间登记、历史回放和在线人数下发放到单独的单线程执行器，入站线程只负责投递任务；
+     * 单线程保证同一会话的加入与离开按顺序处理。队列满时退回到入站线程上直接处理。
+     */
+    private ThreadPoolTaskExecutor createPresenceExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setQueueCapacity(presenceQueueCapacity);
+        executor.setThreadNamePrefix("stomp-presence-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.initialize();
+        metrics.gauge("chat.presence.queued", "等待处理的订阅和断开事件数", ChatMetrics.STOMP, executor,
+            e -> e.getThreadPoolExecutor().getQueue().size());
+        return executor;
+    }
+
+    private void handleSubscribe(String sessionId, String subscriptionId, String destination) {
+        String roomId = destination.substring(TOPIC_PREFIX.length());
+        String oldRoomId = roomRegistry.join(sessionId, roomId);
+        if (oldRoomId != null) {
+            presence.markDirty(oldRoomId);
+        }
+        log.debug("用户加入房间: sessionId={}, roomId={}, count={}",
+            sessionId, roomId, roomRegistry.getOnlineCount(roomId));
+        replayBacklog(sessionId, subscriptionId, destination, roomId);
+        sendOnlineCount(sessionId, subscriptionId, destination, roomId);
+        // 房间其他成员在下一拍收到合并后的在线人数
+        presence.markDirty(roomId);
+    }
+
+    private void handleDisconnect(String sessionId) {
+        String roomId = roomRegistry.leave(sessionId);
+        if (roomId != null) {
+            log.debug("用户离开房间: sessionId={}, roomId={}, count={}",
+                sessionId, roomId, roomRegistry.getOnlineCount(roomId));
+            // 下一拍广播在线人数更新
+            presence.markDirty(roomId);
+        }
     }
 
     @Override
     public void configureClientInboundChannel(ChannelRegistration registration) {
+        applyExecutorSettings(channelExecutor(registration, "clientInboundChannel-"),
+            inboundCorePoolSize, inboundMaxPoolSize, inboundQueueCapacity);
+        presenceExecutor = createPresenceExecutor();
         registration.interceptors(new ChannelInterceptor() {
             @Override
             public Message<?> preSend(Message<?> message, MessageChannel channel) {
@@ -77,37 +466,58 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer, Applic
                     String sessionId = accessor.getSessionId();
                     StompCommand command = accessor.getCommand();
                     
-                    log.info("收到消息类型: {}", command);
-                    
-                    if (StompCommand.CONNECT.equals(command)) {
-                        log.info("客户端尝试连接: {}", sessionId);
-                        log.info("连接详情: {}", accessor);
+                    if (StompCommand.SEND.equals(command)) {
+                        // 在入站线程上检查，被拒绝的消息不进入入站队列；房间限额按实际广播的 topic(/chat/{房间})计，
+                        // 控制器会丢弃目的地和消息体 chatCode 不一致的消息，换目的地拿不到新的房间桶
+                        Map<String, Object> attributes = accessor.getSessionAttributes();
+                        TokenBuckets buckets = attributes != null ? (TokenBuckets) attributes.get(RATE_LIMIT_KEY) : null;
+                        String destination = accessor.getDestination();
+                        Rejection rejection = rateLimiter.check(buckets, roomTopic(destination),
+                            ((byte[]) message.getPayload()).length, false);
+                        if (rejection != null) {
+                            if (buckets != null) {
+                                sendRejected(sessionId, attributes, buckets, rejection, destination);
+                            }
+                            return null;
+                        }
+                    } else if (StompCommand.CONNECT.equals(command)) {
+                        log.debug("客户端尝试连接: {}", sessionId);
+                        Map<String, Object> attributes = accessor.getSessionAttributes();
+                        if (attributes != null) {
+                            TokenBuckets buckets = rateLimiter.newSessionBuckets();
+                            attributes.put(RATE_LIMIT_KEY, buckets);
+                            // HTTP 图片上传带同一个标识时记到本会话的桶上，而不是按来源地址
+                            String uploadKey = accessor.getFirstNativeHeader(RateLimiter.UPLOAD_KEY_HEADER);
+                            if (uploadKey != null && !uploadKey.isEmpty()) {
+                                attributes.put(UPLOAD_KEY, uploadKey);
+                                rateLimiter.bindUploadKey(uploadKey, buckets);
+                            }
+                        }
+                        // 客户端声明能解析合并帧时才开启合并发送
+                        if (outboundBatcher != null
+                                && "true".equals(accessor.getFirstNativeHeader(StompOutboundBatcher.BATCH_HEADER))) {
+                            outboundBatcher.register(sessionId);
+                        }
                     } else if (StompCommand.SUBSCRIBE.equals(command)) {
                         String destination = accessor.getDestination();
-                        if (destination != null && destination.startsWith("/chat/")) {
-                            String roomId = destination.substring("/chat/".length());
-                            userRooms.put(sessionId, roomId);
-                            int count = roomOnlineCount.getOrDefault(roomId, 0) + 1;
-                            roomOnlineCount.put(roomId, count);
-                            log.info("用户加入房间: sessionId={}, roomId={}, count={}", sessionId, roomId, count);
-                            // 广播在线人数更新
-                            broadcastOnlineCount(roomId);
+                        if (destination != null && destination.startsWith(TOPIC_PREFIX)) {
+                            String subscriptionId = accessor.getSubscriptionId();
+                            Map<String, Object> attributes = accessor.getSessionAttributes();
+                            if (attributes != null) {
+                                attributes.put(ROOM_SUBSCRIPTION_KEY, new String[]{subscriptionId, destination});
+                            }
+                            presenceExecutor.execute(() -> handleSubscribe(sessionId, subscriptionId, destination));
                         }
                     } else if (StompCommand.DISCONNECT.equals(command)) {
-                        String roomId = userRooms.get(sessionId);
-                        if (roomId != null) {
-                            int count = roomOnlineCount.getOrDefault(roomId, 1) - 1;
-                            if (count <= 0) {
-                                roomOnlineCount.remove(roomId);
-                                count = 0;
-                            } else {
-                                roomOnlineCount.put(roomId, count);
-                            }
-                            userRooms.remove(sessionId);
-                            log.info("用户离开房间: sessionId={}, roomId={}, count={}", sessionId, roomId, count);
-                            // 广播在线人数更新
-                            broadcastOnlineCount(roomId);
+                        Map<String, Object> attributes = accessor.getSessionAttributes();
+                        if (attributes != null) {
+                            rateLimiter.unbindUploadKey((String) attributes.get(UPLOAD_KEY),
+                                (TokenBuckets) attributes.get(RATE_LIMIT_KEY));
+                        }
+                        if (outboundBatcher != null) {
+                            outboundBatcher.unregister(sessionId);
                         }
+                        presenceExecutor.execute(() -> handleDisconnect(sessionId));
                     }
                 }
                 return message;
@@ -115,7 +525,10 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer, Applic
         });
     }
 
+    /**
+     * @return 所有节点上该房间的在线人数之和
+     */
     public static int getRoomOnlineCount(String roomId) {
-        return roomOnlineCount.getOrDefault(roomId, 0);
+        return roomRegistry.getOnlineCount(roomId) + backplane.getRemoteCount(TOPIC_PREFIX + roomId);
     }
 } 
\ No newline at end of file
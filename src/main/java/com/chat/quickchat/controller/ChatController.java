@@ -1,16 +1,34 @@
 package com.chat.quickchat.controller;
 
+import com.chat.quickchat.cluster.Backplane;
 import com.chat.quickchat.config.WebSocketConfig;
+import com.chat.quickchat.metrics.ChatMetrics;
+import com.chat.quickchat.metrics.FanoutChannelInterceptor;
+import com.chat.quickchat.metrics.FanoutLatch;
 import com.chat.quickchat.model.ChatMessage;
+import com.chat.quickchat.ratelimit.RateLimiter;
+import com.chat.quickchat.ratelimit.Rejection;
 import com.chat.quickchat.service.ImageCacheService;
+import com.chat.quickchat.service.LogRecord;
+import com.chat.quickchat.service.MessageLogService;
+import com.chat.quickchat.service.RoomBacklogService;
+import com.chat.quickchat.websocket.BroadcastFrame;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.handler.annotation.DestinationVariable;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
 
@@ -18,40 +36,141 @@ import java.util.HashMap;
 @RequestMapping("/api/chat")
 @Slf4j
 public class ChatController {
+    private static final int MAX_HISTORY_PAGE = 200;
 
     private final SimpMessagingTemplate messagingTemplate;
     private final ImageCacheService imageCacheService;
+    private final RoomBacklogService roomBacklogService;
+    private final MessageLogService messageLogService;
+    private final Backplane backplane;
+    private final ChatMetrics metrics;
+    private final RateLimiter rateLimiter;
 
     @Autowired
-    public ChatController(SimpMessagingTemplate messagingTemplate, ImageCacheService imageCacheService) {
+    public ChatController(SimpMessagingTemplate messagingTemplate, ImageCacheService imageCacheService,
+                          RoomBacklogService roomBacklogService, MessageLogService messageLogService,
+                          Backplane backplane, ChatMetrics metrics, RateLimiter rateLimiter) {
         this.messagingTemplate = messagingTemplate;
         this.imageCacheService = imageCacheService;
+        this.roomBacklogService = roomBacklogService;
+        this.messageLogService = messageLogService;
+        this.backplane = backplane;
+        this.metrics = metrics;
+        this.rateLimiter = rateLimiter;
     }
 
     @MessageMapping("/chat/{chatCode}")
-    public void sendMessage(@Payload ChatMessage message) {
+    public void sendMessage(@DestinationVariable String chatCode, @Payload ChatMessage message) {
         log.debug("Received message: {}", message);
+        // 入站限流按目的地的房间计，广播到别的房间的消息会绕过那个房间的限额
+        if (!chatCode.equals(message.getChatCode())) {
+            log.warn("消息目的地与 chatCode 不一致，丢弃: destination={}, chatCode={}", chatCode, message.getChatCode());
+            return;
+        }
+        metrics.messageReceived(ChatMetrics.STOMP, message.getChatCode());
         
-        // 发送消息
-        messagingTemplate.convertAndSend("/chat/" + message.getChatCode(), message);
-        
-        // 如果是JOIN或CREATE类型的消息，发送在线人数更新
-        if (message.getType() == ChatMessage.MessageType.JOIN || 
-            message.getType() == ChatMessage.MessageType.CREATE) {
-            int onlineCount = WebSocketConfig.getRoomOnlineCount(message.getChatCode());
-            ChatMessage countMessage = new ChatMessage();
-            countMessage.setType(ChatMessage.MessageType.ONLINE_COUNT);
-            countMessage.setChatCode(message.getChatCode());
-            countMessage.setContent(String.valueOf(onlineCount));
-            countMessage.setTimestamp(System.currentTimeMillis());
-            
-            messagingTemplate.convertAndSend("/chat/" + message.getChatCode(), countMessage);
-            log.info("发送在线人数更新: roomId={}, count={}", message.getChatCode(), onlineCount);
+        // 发送消息，broker 分发完各订阅者后放开广播方持有的那份计数
+        BroadcastFrame frame = BroadcastFrame.of(message);
+        String destination = "/chat/" + message.getChatCode();
+        Message<byte[]> outbound = frame.toMessage();
+        FanoutLatch latch = metrics.startFanout(ChatMetrics.STOMP);
+        FanoutChannelInterceptor.attach(outbound, latch);
+        messagingTemplate.send(destination, outbound);
+        // 转发给房间有订阅者的其他节点，只有聊天消息需要对方写入缓存和日志
+        backplane.publish(destination, frame.getPayload(), message.getType() == ChatMessage.MessageType.CHAT);
+        if (message.getType() == ChatMessage.MessageType.CHAT) {
+            // 缓存和日志按目的地存放，与原生 /ws 的同名房间(/ws/ 前缀)区分
+            roomBacklogService.append(destination, frame.getPayload());
+            messageLogService.append(destination, frame.getPayload());
+        }
+        // 在线人数不在这里广播：订阅时已直接发给加入者，房间其他成员按节拍收到合并后的人数
+    }
+
+    @GetMapping("/{chatCode}/online")
+    public Map<String, Object> onlineCount(@PathVariable String chatCode) {
+        return Map.of("chatCode", chatCode, "count", WebSocketConfig.getRoomOnlineCount(chatCode));
+    }
+
+    /**
+     * transport 为 stomp(默认)或 ws，两种接入方式的同名房间是不同的房间，消息格式也不同。
+     */
+    @GetMapping("/{chatCode}/recent")
+    public ResponseEntity<byte[]> recentMessages(@PathVariable String chatCode,
+                                                 @RequestParam(defaultValue = "100") int limit,
+                                                 @RequestParam(defaultValue = ChatMetrics.STOMP) String transport) {
+        // 缓存中已是序列化好的 JSON，直接拼成数组返回
+        List<byte[]> messages = roomBacklogService.recent(roomKey(transport, chatCode), limit);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write('[');
+        for (int i = 0; i < messages.size(); i++) {
+            if (i > 0) {
+                body.write(',');
+            }
+            body.writeBytes(messages.get(i));
         }
+        body.write(']');
+        return ResponseEntity.ok()
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(body.toByteArray());
+    }
+
+    /**
+     * 按偏移向前翻页读取持久化的历史消息。
+     * 返回 {"messages":[{"offset":..,"timestamp":..,"message":{..}}],"nextBefore":..}，
+     * nextBefore 作为下一页的 before 参数，没有更早的消息时为 null。transport 与 /recent 相同。
+     * before 不是该房间的消息偏移时返回 400。
+     */
+    @GetMapping("/{chatCode}/history")
+    public ResponseEntity<byte[]> history(@PathVariable String chatCode,
+                                          @RequestParam(required = false) Long before,
+                                          @RequestParam(defaultValue = "50") int limit,
+                                          @RequestParam(defaultValue = ChatMetrics.STOMP) String transport) {
+        List<LogRecord> records;
+        try {
+            records = messageLogService.history(roomKey(transport, chatCode), before, Math.min(limit, MAX_HISTORY_PAGE));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(("{\"error\":\"invalid before\"}").getBytes(StandardCharsets.UTF_8));
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.writeBytes("{\"messages\":[".getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < records.size(); i++) {
+            LogRecord record = records.get(i);
+            if (i > 0) {
+                body.write(',');
+            }
+            body.writeBytes(("{\"offset\":" + record.offset() + ",\"timestamp\":" + record.timestamp()
+                + ",\"message\":").getBytes(StandardCharsets.UTF_8));
+            body.writeBytes(record.payload());
+            body.write('}');
+        }
+        String nextBefore = records.isEmpty() || records.get(0).prevOffset() < 0
+            ? "null" : String.valueOf(records.get(0).offset());
+        body.writeBytes(("],\"nextBefore\":" + nextBefore + "}").getBytes(StandardCharsets.UTF_8));
+        return ResponseEntity.ok()
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(body.toByteArray());
+    }
+
+    /**
+     * 缓存和日志中的房间键，与节点总线的 topic 一致：STOMP 为 /chat/{房间}，原生 /ws 为 /ws/{房间}。
+     */
+    private static String roomKey(String transport, String chatCode) {
+        return (ChatMetrics.WS.equals(transport) ? "/ws/" : "/chat/") + chatCode;
     }
 
     @PostMapping("/upload")
-    public ResponseEntity<?> uploadImage(@RequestParam("file") MultipartFile file) {
+    public ResponseEntity<?> uploadImage(@RequestParam("file") MultipartFile file, HttpServletRequest request) {
+        // 带上传标识时按所属 STOMP 会话限流，否则按来源地址；响应体与 WebSocket 的拒绝帧一致
+        String uploadKey = request.getHeader(RateLimiter.UPLOAD_KEY_HEADER);
+        Rejection rejection = rateLimiter.checkUpload(uploadKey, request.getRemoteAddr());
+        if (rejection != null) {
+            log.warn("图片上传被限流: remoteAddr={}, uploadKey={}, limit={}",
+                request.getRemoteAddr(), uploadKey, rejection.getLimit());
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .body(rateLimiter.rejectMessage(rejection, null, null));
+        }
         try {
             log.info("接收到图片上传请求: {}", file.getOriginalFilename());
             String filename = imageCacheService.saveImage(file);
@@ -1,27 +1,92 @@
 package com.chat.quickchat.controller;
 
 import com.chat.quickchat.service.ImageCacheService;
+import com.chat.quickchat.service.StoredImage;
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.Duration;
+import java.util.List;
+
 @RestController
 @RequestMapping("/api/images")
 public class ImageController {
+    // Tomcat sendfile 相关的请求属性
+    private static final String SENDFILE_SUPPORTED_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
 
     @Autowired
     private ImageCacheService imageCacheService;
 
     @GetMapping("/{filename}")
-    public ResponseEntity<byte[]> getImage(@PathVariable String filename) {
-        byte[] imageData = imageCacheService.getImage(filename);
-        if (imageData == null) {
+    public ResponseEntity<Resource> getImage(@PathVariable String filename,
+                                             @RequestParam(required = false) Integer size,
+                                             @RequestHeader HttpHeaders requestHeaders,
+                                             HttpServletRequest request) {
+        // size 指定时返回不小于该尺寸的缩略图，尚未生成时返回原图
+        StoredImage image = imageCacheService.getImage(filename, size);
+        if (image == null) {
             return ResponseEntity.notFound().build();
         }
-        return ResponseEntity.ok()
-                .contentType(MediaType.IMAGE_PNG)
-                .body(imageData);
+
+        // 磁盘文件按内容哈希命名且内容不会再变，文件名即可作为强 ETag；缓存时间与剩余有效期一致
+        String storedFilename = image.path().getFileName().toString();
+        String etag = "\"" + storedFilename + "\"";
+        long remainingSeconds = Math.max(0, (image.expiresAt() - System.currentTimeMillis()) / 1000);
+        CacheControl cacheControl = CacheControl.maxAge(Duration.ofSeconds(remainingSeconds)).cachePublic();
+        if (size != null && !storedFilename.contains("@")) {
+            // 缩略图可能还在生成，回退的原图只允许协商缓存，避免浏览器长期缓存
+            cacheControl = CacheControl.noCache();
+        }
+
+        if (matchesEtag(requestHeaders.getIfNoneMatch(), etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(etag)
+                    .cacheControl(cacheControl)
+                    .build();
+        }
+
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok()
+                .contentType(MediaTypeFactory.getMediaType(storedFilename)
+                        .orElse(MediaType.APPLICATION_OCTET_STREAM))
+                .eTag(etag)
+                .cacheControl(cacheControl)
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+        if (image.content() != null) {
+            return builder.body(new ByteArrayResource(image.content()));
+        }
+
+        // 完整请求交给 Tomcat 的 sendfile 零拷贝发送，不经过堆内存
+        if (requestHeaders.getRange().isEmpty() && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED_ATTR))) {
+            request.setAttribute(SENDFILE_FILENAME_ATTR, image.path().toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START_ATTR, 0L);
+            request.setAttribute(SENDFILE_END_ATTR, image.size());
+            return builder.contentLength(image.size()).build();
+        }
+
+        // Range 请求及不支持 sendfile 的容器，由 Spring 按区间从文件流式输出
+        return builder.body(new FileSystemResource(image.path()));
+    }
+
+    private boolean matchesEtag(List<String> ifNoneMatch, String etag) {
+        for (String candidate : ifNoneMatch) {
+            if ("*".equals(candidate) || etag.equals(candidate) || ("W/" + etag).equals(candidate)) {
+                return true;
+            }
+        }
+        return false;
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,174 @@
+package com.chat.quickchat.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * 聊天流量指标，通过 Actuator 暴露。
+ * 消息计数按接入方式(stomp / ws)和房间打标签；房间标签数量有上限，超出的房间计入 room=other，
+ * 房间清空后释放其标签。房间号来自客户端，只有本节点有在线成员的房间才单独打标签，
+ * 发往无人订阅房间的消息计入 room=other，不会占满标签上限。热点路径上只有一次 Map 查找和计数器累加，计数器按需创建后复用。
+ */
+@Component
+public class ChatMetrics {
+    public static final String STOMP = "stomp";
+    public static final String WS = "ws";
+    private static final String OTHER_ROOM = "other";
+
+    private final MeterRegistry registry;
+    private final int maxRoomTags;
+    private final Map<String, TransportMeters> transports = new ConcurrentHashMap<>();
+    private final DistributionSummary imageBytes;
+    private final Map<String, Timer> imageTimers = new ConcurrentHashMap<>();
+    private final Map<String, Timer> cleanupTimers = new ConcurrentHashMap<>();
+
+    public ChatMetrics(MeterRegistry registry, @Value("${metrics.room-tags.max:100}") int maxRoomTags) {
+        this.registry = registry;
+        this.maxRoomTags = maxRoomTags;
+        this.imageBytes = DistributionSummary.builder("chat.image.upload.size")
+            .description("上传图片的大小")
+            .baseUnit("bytes")
+            .publishPercentiles(0.5, 0.95, 0.99)
+            .register(registry);
+    }
+
+    private final class TransportMeters {
+        private final String name;
+        private final Map<String, Counter> roomMessages = new ConcurrentHashMap<>();
+        private final Counter otherRoomMessages;
+        private final Timer fanout;
+        private volatile Predicate<String> hasMembers = roomId -> false;
+
+        private TransportMeters(String name) {
+            this.name = name;
+            this.otherRoomMessages = messageCounter(OTHER_ROOM);
+            this.fanout = Timer.builder("chat.fanout.latency")
+                .description("房间广播从入队到最后一个接收者写出的耗时")
+                .tag("transport", name)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .publishPercentileHistogram()
+                .register(registry);
+        }
+
+        private Counter messageCounter(String room) {
+            return Counter.builder("chat.messages")
+                .description("客户端发来的消息数")
+                .tag("transport", name)
+                .tag("room", room)
+                .register(registry);
+        }
+
+        private Counter roomCounter(String roomId) {
+            Counter counter = roomMessages.get(roomId);
+            if (counter != null) {
+                return counter;
+            }
+            // 并发创建时可能略微超过上限，不影响正确性
+            if (roomMessages.size() >= maxRoomTags || !hasMembers.test(roomId)) {
+                return otherRoomMessages;
+            }
+            counter = roomMessages.computeIfAbsent(roomId, this::messageCounter);
+            // 检查之后房间恰好清空时，roomClosed 可能先于标签创建执行，这里再确认一次
+            if (!hasMembers.test(roomId)) {
+                release(roomId);
+            }
+            return counter;
+        }
+
+        private void release(String roomId) {
+            Counter counter = roomMessages.remove(roomId);
+            if (counter != null) {
+                registry.remove(counter);
+            }
+        }
+    }
+
+    private TransportMeters transport(String transport) {
+        return transports.computeIfAbsent(transport, TransportMeters::new);
+    }
+
+    /**
+     * @param hasMembers 房间在本节点是否有在线成员，没有注册时所有消息都计入 room=other
+     */
+    public void trackRooms(String transport, Predicate<String> hasMembers) {
+        transport(transport).hasMembers = hasMembers;
+    }
+
+    public void messageReceived(String transport, String roomId) {
+        TransportMeters meters = transport(transport);
+        (roomId != null ? meters.roomCounter(roomId) : meters.otherRoomMessages).increment();
+    }
+
+    /**
+     * 房间在本节点已无在线成员，释放其房间标签供其他房间使用。
+     */
+    public void roomClosed(String transport, String roomId) {
+        transport(transport).release(roomId);
+    }
+
+    public FanoutLatch startFanout(String transport) {
+        return new FanoutLatch(transport(transport).fanout);
+    }
+
+    /**
+     * @param source http 为 HTTP 上传；stream 为 WebSocket 流式上传，耗时包含接收数据的时间
+     */
+    public void imageStored(String source, long bytes, long nanos) {
+        imageBytes.record(bytes);
+        imageTimers.computeIfAbsent(source, key -> Timer.builder("chat.image.upload.latency")
+                .description("保存上传图片的耗时")
+                .tag("source", key)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(registry))
+            .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param phase startup 为启动时扫描目录，scheduled 为定时清理过期引用
+     */
+    public void cleanupCompleted(String phase, long nanos) {
+        cleanupTimers.computeIfAbsent(phase, key -> Timer.builder("chat.image.cleanup")
+                .description("图片清理耗时")
+                .tag("phase", key)
+                .register(registry))
+            .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public <T> void gauge(String name, String description, String transport, T target, ToDoubleFunction<T> value) {
+        Gauge.builder(name, target, value)
+            .description(description)
+            .tag("transport", transport)
+            .register(registry);
+    }
+
+    public <T> void gauge(String name, String description, T target, ToDoubleFunction<T> value) {
+        Gauge.builder(name, target, value)
+            .description(description)
+            .register(registry);
+    }
+
+    public <T> void counter(String name, String description, T target, ToDoubleFunction<T> value) {
+        FunctionCounter.builder(name, target, value)
+            .description(description)
+            .register(registry);
+    }
+
+    public <T> void counter(String name, String description, String transport, T target, ToDoubleFunction<T> value) {
+        FunctionCounter.builder(name, target, value)
+            .description(description)
+            .tag("transport", transport)
+            .register(registry);
+    }
+}
@@ -0,0 +1,140 @@
+package com.chat.quickchat.metrics;
+
+import com.chat.quickchat.cluster.Backplane;
+import com.chat.quickchat.ratelimit.RateLimiter;
+import com.chat.quickchat.ratelimit.Rejection;
+import com.chat.quickchat.service.ImageCacheService;
+import com.chat.quickchat.service.MessageLogService;
+import com.chat.quickchat.service.RoomBacklogService;
+import com.chat.quickchat.websocket.DeflateCompression;
+import com.chat.quickchat.websocket.RoomShards;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+/**
+ * 各服务内部已有的统计值，在抓取时读取，不在热点路径上额外计数。
+ */
+@Component
+public class ChatServiceMetrics implements MeterBinder {
+    private final MessageLogService messageLogService;
+    private final Backplane backplane;
+    private final ImageCacheService imageCacheService;
+    private final DeflateCompression deflateCompression;
+    private final RateLimiter rateLimiter;
+    private final RoomShards roomShards;
+    private final RoomBacklogService roomBacklogService;
+
+    public ChatServiceMetrics(MessageLogService messageLogService, Backplane backplane,
+                              ImageCacheService imageCacheService, DeflateCompression deflateCompression,
+                              RateLimiter rateLimiter, RoomShards roomShards,
+                              RoomBacklogService roomBacklogService) {
+        this.messageLogService = messageLogService;
+        this.backplane = backplane;
+        this.imageCacheService = imageCacheService;
+        this.deflateCompression = deflateCompression;
+        this.rateLimiter = rateLimiter;
+        this.roomShards = roomShards;
+        this.roomBacklogService = roomBacklogService;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("chat.log.dropped", messageLogService, MessageLogService::getDroppedCount)
+            .description("消息日志队列已满时丢弃的消息数")
+            .register(registry);
+        Gauge.builder("chat.log.queue.depth", messageLogService, MessageLogService::getQueueDepth)
+            .description("消息日志等待写入的消息数")
+            .register(registry);
+
+        Gauge.builder("chat.backlog.rooms", roomBacklogService, RoomBacklogService::getRoomCount)
+            .description("缓存了最近消息的房间数")
+            .register(registry);
+        Gauge.builder("chat.backlog.size", roomBacklogService, RoomBacklogService::getBytes)
+            .description("房间最近消息缓存占用")
+            .baseUnit("bytes")
+            .register(registry);
+
+        FunctionCounter.builder("chat.backplane.dropped", backplane, Backplane::getDroppedCount)
+            .description("节点总线发送队列已满时丢弃的帧数")
+            .register(registry);
+        Gauge.builder("chat.backplane.peers", backplane, Backplane::getPeerCount)
+            .description("当前连接的其他节点数")
+            .register(registry);
+
+        FunctionCounter.builder("chat.image.cache.hits", imageCacheService,
+                service -> service.getMemoryCache().getHitCount())
+            .description("图片内存缓存命中次数")
+            .register(registry);
+        FunctionCounter.builder("chat.image.cache.misses", imageCacheService,
+                service -> service.getMemoryCache().getMissCount())
+            .description("图片内存缓存未命中次数")
+            .register(registry);
+        FunctionCounter.builder("chat.image.cache.evictions", imageCacheService,
+                service -> service.getMemoryCache().getEvictionCount())
+            .description("图片内存缓存淘汰次数")
+            .register(registry);
+        Gauge.builder("chat.image.cache.size", imageCacheService,
+                service -> service.getMemoryCache().getCurrentBytes())
+            .description("图片内存缓存占用")
+            .baseUnit("bytes")
+            .register(registry);
+
+        FunctionCounter.builder("chat.compression.sessions", deflateCompression, DeflateCompression::getSessionCount)
+            .description("协商了 permessage-deflate 的会话数")
+            .register(registry);
+        FunctionCounter.builder("chat.compression.bytes", deflateCompression, DeflateCompression::getBytesIn)
+            .description("压缩前的出站字节数")
+            .baseUnit("bytes")
+            .tag("stage", "in")
+            .register(registry);
+        FunctionCounter.builder("chat.compression.bytes", deflateCompression, DeflateCompression::getBytesOut)
+            .description("压缩后的出站字节数")
+            .baseUnit("bytes")
+            .tag("stage", "out")
+            .register(registry);
+        Gauge.builder("chat.compression.ratio", deflateCompression, DeflateCompression::getRatio)
+            .description("压缩后与压缩前字节数之比，越小越省流量")
+            .register(registry);
+        FunctionCounter.builder("chat.compression.cpu", deflateCompression, DeflateCompression::getCompressSeconds)
+            .description("出站压缩累计耗时")
+            .baseUnit("seconds")
+            .register(registry);
+        FunctionCounter.builder("chat.compression.skipped", deflateCompression, DeflateCompression::getSkippedSmallCount)
+            .description("未压缩直接发出的消息数")
+            .tag("reason", "small")
+            .register(registry);
+        FunctionCounter.builder("chat.compression.skipped", deflateCompression, DeflateCompression::getSkippedBudgetCount)
+            .description("未压缩直接发出的消息数")
+            .tag("reason", "budget")
+            .register(registry);
+
+        for (Rejection rejection : Rejection.values()) {
+            FunctionCounter.builder("chat.ratelimit.rejected", rateLimiter, limiter -> limiter.getRejectedCount(rejection))
+                .description("被限流或准入控制拒绝的入站消息数")
+                .tag("scope", rejection.getScope())
+                .tag("limit", rejection.getLimit())
+                .register(registry);
+        }
+        Gauge.builder("chat.ratelimit.rooms", rateLimiter, RateLimiter::getRoomCount)
+            .description("持有令牌桶的房间数")
+            .register(registry);
+
+        for (int i = 0; i < roomShards.getShardCount(); i++) {
+            int shard = i;
+            Gauge.builder("chat.shard.queued", roomShards, shards -> shards.getQueuedCount(shard))
+                .description("原生 /ws 房间分片上等待执行的任务数")
+                .tag("shard", String.valueOf(shard))
+                .register(registry);
+            FunctionCounter.builder("chat.shard.tasks", roomShards, shards -> shards.getCompletedCount(shard))
+                .description("原生 /ws 房间分片已执行的任务数")
+                .tag("shard", String.valueOf(shard))
+                .register(registry);
+        }
+        FunctionCounter.builder("chat.shard.rejected", roomShards, RoomShards::getRejectedCount)
+            .description("原生 /ws 房间分片队列已满时拒绝的任务数")
+            .register(registry);
+    }
+}
@@ -0,0 +1,77 @@
+package com.chat.quickchat.metrics;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.broker.AbstractBrokerMessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.support.ExecutorChannelInterceptor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 挂在 clientOutboundChannel 最前面，统计 STOMP 广播的扇出耗时和发送失败。
+ * broker 为每个订阅者复制消息时会带上原消息的头，因此每个订阅者的消息都能取到同一个 {@link FanoutLatch}：
+ * 进入通道时 retain，写给会话后 arrive。合并发送的消息改由 {@link #LATCHES_HEADER} 携带，进入通道时不再 retain。
+ * 广播方持有的那份由 {@link BrokerChannel} 在 broker 分发完所有订阅者后 arrive，broker 通道同步或异步执行都适用。
+ */
+public class FanoutChannelInterceptor implements ExecutorChannelInterceptor {
+    public static final String LATCH_HEADER = "chatFanoutLatch";
+    public static final String LATCHES_HEADER = "chatFanoutLatches";
+
+    private final LongAdder failedSends = new LongAdder();
+
+    public FanoutChannelInterceptor(ChatMetrics metrics) {
+        metrics.counter("chat.send.failures", "发送失败次数", ChatMetrics.STOMP,
+            failedSends, LongAdder::sum);
+    }
+
+    /**
+     * 给即将交给 broker 的消息挂上扇出计时，消息的头必须仍可修改。
+     */
+    public static void attach(Message<?> message, FanoutLatch latch) {
+        SimpMessageHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, SimpMessageHeaderAccessor.class);
+        if (accessor != null && accessor.isMutable()) {
+            accessor.setHeader(LATCH_HEADER, latch);
+        }
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        if (message.getHeaders().get(LATCH_HEADER) instanceof FanoutLatch latch) {
+            latch.retain();
+        }
+        return message;
+    }
+
+    @Override
+    public void afterMessageHandled(Message<?> message, MessageChannel channel, MessageHandler handler, Exception ex) {
+        if (ex != null) {
+            failedSends.increment();
+        }
+        Object latch = message.getHeaders().get(LATCH_HEADER);
+        if (latch instanceof FanoutLatch single) {
+            single.arrive();
+        } else if (message.getHeaders().get(LATCHES_HEADER) instanceof List<?> latches) {
+            for (Object item : latches) {
+                ((FanoutLatch) item).arrive();
+            }
+        }
+    }
+
+    /**
+     * 挂在 brokerChannel 上，broker 处理完一条带扇出计时的消息(已为每个订阅者投递到出站通道)后 arrive。
+     */
+    public static class BrokerChannel implements ExecutorChannelInterceptor {
+        @Override
+        public void afterMessageHandled(Message<?> message, MessageChannel channel, MessageHandler handler, Exception ex) {
+            // brokerChannel 上还有用户目的地处理器，只在 broker 处理后计数一次
+            if (handler instanceof AbstractBrokerMessageHandler
+                    && message.getHeaders().get(LATCH_HEADER) instanceof FanoutLatch latch) {
+                latch.arrive();
+            }
+        }
+    }
+}
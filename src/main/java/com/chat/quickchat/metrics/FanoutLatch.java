@@ -0,0 +1,31 @@
+package com.chat.quickchat.metrics;
+
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 一次房间广播的扇出计时：从开始入队到最后一个接收者写出(或失败)为止。
+ * 广播方自己持有一份，每个接收者入队时 retain，写出后 arrive；广播方入队结束后 arrive 自己那份，
+ * 计数归零时记录耗时。
+ */
+public final class FanoutLatch {
+    private final Timer timer;
+    private final long startNanos = System.nanoTime();
+    private final AtomicInteger pending = new AtomicInteger(1);
+
+    FanoutLatch(Timer timer) {
+        this.timer = timer;
+    }
+
+    public void retain() {
+        pending.incrementAndGet();
+    }
+
+    public void arrive() {
+        if (pending.decrementAndGet() == 0) {
+            timer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.chat.quickchat.ratelimit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * 入站消息的限流和准入控制，STOMP 和原生 /ws 共用。
+ * 每个会话、每个房间各有一组令牌桶，分别限制每秒消息数、字节数和图片数；HTTP 图片上传带上传标识时
+ * 记到对应 STOMP 会话的桶上，否则按来源地址限流。
+ * 准入检查读取各入站/出站队列的积压量，超过上限时直接拒绝新消息，不让队列无限增长。
+ * 检查路径上不加锁、不分配对象(房间第一次出现时除外)，被拒绝时由调用方给客户端发拒绝帧。
+ */
+@Component
+public class RateLimiter {
+    private static final Logger logger = LoggerFactory.getLogger(RateLimiter.class);
+    // 同一会话一秒内最多收到一个拒绝帧，避免刷屏的客户端反过来放大出站流量
+    private static final long NOTIFY_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long OVERLOADED_RETRY_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final Rejection[] REJECTIONS = Rejection.values();
+    /**
+     * 客户端生成的上传标识，STOMP CONNECT 和 HTTP 图片上传带同一个值，上传就记到该会话的桶上。
+     */
+    public static final String UPLOAD_KEY_HEADER = "x-upload-key";
+
+    private final boolean enabled;
+    private final int maxQueued;
+    private final TokenBuckets.Limits sessionLimits;
+    private final TokenBuckets.Limits roomLimits;
+    private final Map<String, TokenBuckets> rooms = new ConcurrentHashMap<>();
+    private final Map<String, TokenBuckets> uploaders = new ConcurrentHashMap<>();
+    private final Map<String, TokenBuckets> uploadKeys = new ConcurrentHashMap<>();
+    private final List<IntSupplier> loadSources = new CopyOnWriteArrayList<>();
+    private final LongAdder[] rejected = new LongAdder[REJECTIONS.length];
+
+    public RateLimiter(@Value("${ratelimit.enabled:true}") boolean enabled,
+                       @Value("${ratelimit.session.messages:20}") double sessionMessages,
+                       @Value("${ratelimit.session.messages-burst:40}") long sessionMessagesBurst,
+                       @Value("${ratelimit.session.bytes:131072}") double sessionBytes,
+                       @Value("${ratelimit.session.bytes-burst:524288}") long sessionBytesBurst,
+                       @Value("${ratelimit.session.images:1}") double sessionImages,
+                       @Value("${ratelimit.session.images-burst:5}") long sessionImagesBurst,
+                       @Value("${ratelimit.room.messages:200}") double roomMessages,
+                       @Value("${ratelimit.room.messages-burst:400}") long roomMessagesBurst,
+                       @Value("${ratelimit.room.bytes:1048576}") double roomBytes,
+                       @Value("${ratelimit.room.bytes-burst:4194304}") long roomBytesBurst,
+                       @Value("${ratelimit.room.images:10}") double roomImages,
+                       @Value("${ratelimit.room.images-burst:30}") long roomImagesBurst,
+                       @Value("${ratelimit.admission.max-queued:10000}") int maxQueued) {
+        this.enabled = enabled;
+        this.maxQueued = maxQueued;
+        this.sessionLimits = new TokenBuckets.Limits(
+            new double[]{sessionMessages, sessionBytes, sessionImages},
+            new long[]{sessionMessagesBurst, sessionBytesBurst, sessionImagesBurst});
+        this.roomLimits = new TokenBuckets.Limits(
+            new double[]{roomMessages, roomBytes, roomImages},
+            new long[]{roomMessagesBurst, roomBytesBurst, roomImagesBurst});
+        for (int i = 0; i < REJECTIONS.length; i++) {
+            rejected[i] = new LongAdder();
+        }
+    }
+
+    public TokenBuckets newSessionBuckets() {
+        return new TokenBuckets(sessionLimits);
+    }
+
+    /**
+     * 登记一个积压量来源(例如通道执行器的队列长度)，准入检查时累加所有来源。
+     */
+    public void addLoadSource(IntSupplier source) {
+        loadSources.add(source);
+    }
+
+    /**
+     * 依次检查节点准入、会话限额和房间限额，任何一项不通过都不再继续扣减后面的桶。
+     *
+     * @param session 会话的令牌桶，为 null 时跳过会话限额
+     * @param roomKey 房间标识，为 null 时跳过房间限额
+     * @param bytes   消息字节数
+     * @param image   是否为图片消息
+     * @return 通过时返回 null
+     */
+    public Rejection check(TokenBuckets session, String roomKey, long bytes, boolean image) {
+        Rejection rejection = checkSession(session, bytes, image);
+        return rejection != null ? rejection : checkRoom(roomKey, bytes, image, session);
+    }
+
+    /**
+     * 节点准入和会话限额，房间在消息收完之前还不知道时(二进制分片消息)先做这一步。
+     */
+    public Rejection checkSession(TokenBuckets session, long bytes, boolean image) {
+        if (!enabled) {
+            return null;
+        }
+        Rejection rejection = admit();
+        if (rejection == null && session != null) {
+            rejection = acquire(session, System.nanoTime(), bytes, image, Rejection.SESSION_MESSAGES, session);
+        }
+        return count(rejection);
+    }
+
+    /**
+     * 房间限额，被拒绝时等待时间记到 session 上。
+     */
+    public Rejection checkRoom(String roomKey, long bytes, boolean image, TokenBuckets session) {
+        if (!enabled || roomKey == null) {
+            return null;
+        }
+        TokenBuckets room = rooms.get(roomKey);
+        if (room == null) {
+            room = rooms.computeIfAbsent(roomKey, key -> new TokenBuckets(roomLimits));
+        }
+        return count(acquire(room, System.nanoTime(), bytes, image, Rejection.ROOM_MESSAGES, session));
+    }
+
+    private Rejection count(Rejection rejection) {
+        if (rejection != null) {
+            rejected[rejection.ordinal()].increment();
+        }
+        return rejection;
+    }
+
+    /**
+     * 把上传标识绑定到 STOMP 会话的令牌桶，会话断开时调用 {@link #unbindUploadKey} 解除。
+     */
+    public void bindUploadKey(String uploadKey, TokenBuckets session) {
+        if (uploadKey != null && !uploadKey.isEmpty() && session != null) {
+            uploadKeys.put(uploadKey, session);
+        }
+    }
+
+    public void unbindUploadKey(String uploadKey, TokenBuckets session) {
+        if (uploadKey != null) {
+            uploadKeys.remove(uploadKey, session);
+        }
+    }
+
+    /**
+     * HTTP 图片上传限流，使用会话的消息数和图片数限额。上传标识对应在线的 STOMP 会话时扣该会话的桶，
+     * 同一出口地址(NAT、反向代理)后的用户互不影响；没有标识或标识未绑定时退回按来源地址限流，
+     * 随意换标识得不到新的桶。
+     *
+     * @param uploadKey 请求带的上传标识，可为 null
+     * @param address   来源地址
+     */
+    public Rejection checkUpload(String uploadKey, String address) {
+        if (!enabled) {
+            return null;
+        }
+        TokenBuckets buckets = uploadKey != null ? uploadKeys.get(uploadKey) : null;
+        if (buckets == null) {
+            buckets = uploaders.get(address);
+            if (buckets == null) {
+                buckets = uploaders.computeIfAbsent(address, key -> new TokenBuckets(sessionLimits));
+            }
+        }
+        Rejection rejection = admit();
+        if (rejection == null) {
+            rejection = acquire(buckets, System.nanoTime(), 0, true, Rejection.SESSION_MESSAGES, null);
+        }
+        return count(rejection);
+    }
+
+    private Rejection admit() {
+        if (maxQueued <= 0) {
+            return null;
+        }
+        int queued = 0;
+        for (IntSupplier source : loadSources) {
+            queued += source.getAsInt();
+        }
+        return queued > maxQueued ? Rejection.OVERLOADED : null;
+    }
+
+    /**
+     * 图片消息只计图片数，不计字节数，字节限额针对文本消息的流量。
+     *
+     * @param base    该组桶的 MESSAGES 拒绝原因，BYTES、IMAGES 在枚举中紧随其后
+     * @param session 被拒绝时把需要等待的时间记到这个会话上，可以为 null
+     */
+    private static Rejection acquire(TokenBuckets buckets, long now, long bytes, boolean image,
+                                     Rejection base, TokenBuckets session) {
+        int kind = TokenBuckets.MESSAGES;
+        long wait = buckets.tryAcquire(kind, 1, now);
+        if (wait == 0) {
+            kind = image ? TokenBuckets.IMAGES : TokenBuckets.BYTES;
+            wait = buckets.tryAcquire(kind, image ? 1 : bytes, now);
+        }
+        if (wait == 0) {
+            return null;
+        }
+        if (session != null) {
+            session.retryAfterNanos = wait;
+        }
+        return REJECTIONS[base.ordinal() + kind];
+    }
+
+    /**
+     * 是否应该给该会话发拒绝帧，同一会话每秒最多一次。
+     */
+    public boolean shouldNotify(TokenBuckets session) {
+        long now = System.nanoTime();
+        if (session.lastNotifiedNanos != Long.MIN_VALUE && now - session.lastNotifiedNanos < NOTIFY_INTERVAL_NANOS) {
+            return false;
+        }
+        session.lastNotifiedNanos = now;
+        return true;
+    }
+
+    /**
+     * 拒绝帧的内容：{"type":"REJECTED","chatCode":..,"scope":..,"limit":..,"retryAfter":毫秒,"timestamp":..}
+     */
+    public Map<String, Object> rejectMessage(Rejection rejection, String chatCode, TokenBuckets session) {
+        long retryNanos = rejection == Rejection.OVERLOADED || session == null || session.retryAfterNanos == 0
+            ? OVERLOADED_RETRY_NANOS : session.retryAfterNanos;
+        Map<String, Object> message = new LinkedHashMap<>();
+        message.put("type", "REJECTED");
+        message.put("chatCode", chatCode);
+        message.put("scope", rejection.getScope());
+        message.put("limit", rejection.getLimit());
+        message.put("retryAfter", Math.max(1, TimeUnit.NANOSECONDS.toMillis(retryNanos)));
+        message.put("timestamp", System.currentTimeMillis());
+        return message;
+    }
+
+    public long getRejectedCount(Rejection rejection) {
+        return rejected[rejection.ordinal()].sum();
+    }
+
+    public int getRoomCount() {
+        return rooms.size();
+    }
+
+    /**
+     * 丢弃已恢复满额的房间和上传来源的令牌桶，房间号由客户端决定，不清理会无限增长。
+     */
+    @Scheduled(fixedRate = 60000)
+    public void evictIdle() {
+        long now = System.nanoTime();
+        int before = rooms.size() + uploaders.size();
+        rooms.values().removeIf(buckets -> buckets.isIdle(now));
+        uploaders.values().removeIf(buckets -> buckets.isIdle(now));
+        int removed = before - rooms.size() - uploaders.size();
+        if (removed > 0) {
+            logger.debug("清理空闲的限流令牌桶: {}", removed);
+        }
+    }
+}
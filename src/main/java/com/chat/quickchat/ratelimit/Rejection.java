@@ -0,0 +1,30 @@
+package com.chat.quickchat.ratelimit;
+
+/**
+ * 消息被拒绝的原因，scope 和 limit 会写进拒绝帧和指标标签。
+ */
+public enum Rejection {
+    SESSION_MESSAGES("session", "messages"),
+    SESSION_BYTES("session", "bytes"),
+    SESSION_IMAGES("session", "images"),
+    ROOM_MESSAGES("room", "messages"),
+    ROOM_BYTES("room", "bytes"),
+    ROOM_IMAGES("room", "images"),
+    OVERLOADED("server", "queue");
+
+    private final String scope;
+    private final String limit;
+
+    Rejection(String scope, String limit) {
+        this.scope = scope;
+        this.limit = limit;
+    }
+
+    public String getScope() {
+        return scope;
+    }
+
+    public String getLimit() {
+        return limit;
+    }
+}
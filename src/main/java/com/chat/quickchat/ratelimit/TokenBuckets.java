@@ -0,0 +1,87 @@
+package com.chat.quickchat.ratelimit;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 一组令牌桶：消息数、字节数、图片数各一个，属于一个会话、一个房间或一个上传来源。
+ * 按 GCRA 实现，每个桶只有一个 long(理论到达时间)，一次 CAS 完成检查和扣减，不加锁、不分配对象。
+ * 桶满时可以突发 burst 个单位，之后按 rate 每秒恢复。
+ */
+public final class TokenBuckets {
+    public static final int MESSAGES = 0;
+    public static final int BYTES = 1;
+    public static final int IMAGES = 2;
+    private static final int KINDS = 3;
+
+    /**
+     * 三个桶的速率配置，同一类对象(会话、房间)共享一份。
+     */
+    public static final class Limits {
+        // 每个单位占用的纳秒数，0 为不限制
+        private final long[] intervals = new long[KINDS];
+        // 允许的突发量折算成纳秒
+        private final long[] tolerances = new long[KINDS];
+
+        /**
+         * @param rates  每秒允许的消息数、字节数、图片数，0 为不限制
+         * @param bursts 对应的突发上限
+         */
+        public Limits(double[] rates, long[] bursts) {
+            for (int kind = 0; kind < KINDS; kind++) {
+                if (rates[kind] > 0) {
+                    intervals[kind] = Math.max(1, (long) (1_000_000_000L / rates[kind]));
+                    tolerances[kind] = intervals[kind] * Math.max(1, bursts[kind]);
+                }
+            }
+        }
+    }
+
+    private final Limits limits;
+    private final AtomicLongArray arrivals = new AtomicLongArray(KINDS);
+    // 以下两个字段只用于会话的令牌桶，只由该会话的消息处理线程读写，同一会话的消息不会并发处理
+    long retryAfterNanos;
+    long lastNotifiedNanos = Long.MIN_VALUE;
+
+    public TokenBuckets(Limits limits) {
+        this.limits = limits;
+        for (int kind = 0; kind < KINDS; kind++) {
+            arrivals.set(kind, Long.MIN_VALUE);
+        }
+    }
+
+    /**
+     * @return 0 表示已扣减；否则为需要等待的纳秒数，桶不变
+     */
+    long tryAcquire(int kind, long cost, long now) {
+        long interval = limits.intervals[kind];
+        if (interval == 0 || cost <= 0) {
+            return 0;
+        }
+        long increment = interval * cost;
+        while (true) {
+            long arrival = arrivals.get(kind);
+            long next = Math.max(arrival, now) + increment;
+            long wait = next - now - limits.tolerances[kind];
+            if (wait > 0) {
+                return wait;
+            }
+            if (arrivals.compareAndSet(kind, arrival, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * 所有桶都已恢复满额，可以丢弃而不影响限流结果。
+     */
+    boolean isIdle(long now) {
+        for (int kind = 0; kind < KINDS; kind++) {
+            long arrival = arrivals.get(kind);
+            // 从未使用过的桶还是 Long.MIN_VALUE，直接相减会溢出成正数
+            if (arrival != Long.MIN_VALUE && arrival - now > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
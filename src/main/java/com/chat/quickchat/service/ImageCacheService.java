@@ -1,33 +1,136 @@
 package com.chat.quickchat.service;
 
+import com.chat.quickchat.metrics.ChatMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 @Service
 public class ImageCacheService {
     private static final Logger logger = LoggerFactory.getLogger(ImageCacheService.class);
     private static final long EXPIRATION_TIME = 3 * 60 * 1000; // 3分钟过期
     private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final int STREAM_BUFFER_SIZE = 8192;
+    private static final int HASH_HEX_LENGTH = 32;
+    // 图片文件名: <内容哈希>-<创建时间(36进制)>-<随机数><扩展名>，过期时间以过期索引中登记的为准
+    private static final Pattern HANDLE_PATTERN = Pattern.compile("([0-9a-f]{32})-[0-9a-z]{1,13}-[0-9a-f]{8}\\.[a-z0-9]{1,5}");
+    // 磁盘上的内容文件: <内容哈希><扩展名>
+    private static final Pattern BLOB_PATTERN = Pattern.compile("([0-9a-f]{32})\\.[a-z0-9]{1,5}");
+    // 缩略图文件: <内容哈希>@<尺寸><扩展名>
+    private static final Pattern PREVIEW_PATTERN = Pattern.compile("([0-9a-f]{32})@(\\d{1,5})\\.[a-z0-9]{1,5}");
 
     @Value("${upload.path}")
     private String uploadPath;
 
+    @Value("${image.cache.max-bytes:67108864}")
+    private long cacheMaxBytes;
+
+    @Value("${image.cache.max-entry-bytes:4194304}")
+    private long cacheMaxEntryBytes;
+
+    @Value("${image.cache.promote-after-reads:2}")
+    private int promoteAfterReads;
+
+    @Value("${image.upload.max-bytes:10485760}")
+    private long uploadMaxBytes;
+
+    @Value("${image.preview.sizes:320}")
+    private int[] previewSizes;
+
+    @Value("${image.preview.threads:2}")
+    private int previewThreads;
+
+    @Value("${image.preview.queue-size:100}")
+    private int previewQueueSize;
+
+    private ChatMetrics metrics;
+    private ImageMemoryCache memoryCache;
+    private ImagePreviewGenerator previewGenerator;
+    private final ImageExpiryIndex expiryIndex = new ImageExpiryIndex();
+    private final Map<String, Blob> blobs = new ConcurrentHashMap<>();
+
+    /**
+     * 按内容哈希存储的一份图片，被所有引用它的消息共享。
+     * refs、expiresAt 与 state 只在 blobs.compute 中修改；写盘和删除都在 compute 之外进行，
+     * 写盘期间为 WRITING，其他上传同样内容时等待 written；删除期间为 DELETING，新的上传等待 deleted 后重新登记。
+     */
+    private static final class Blob {
+        private final String hash;
+        private final String filename;
+        private final long size;
+        private int refs;
+        private long expiresAt;
+        private volatile BlobState state = BlobState.WRITING;
+        private final CompletableFuture<Void> written = new CompletableFuture<>();
+        private final CompletableFuture<Void> deleted = new CompletableFuture<>();
+        // 已生成的缩略图: 尺寸 -> 缩略图文件
+        private final Map<Integer, Preview> previews = new ConcurrentHashMap<>();
+        // 原图和各缩略图从磁盘读取的次数，达到阈值后才载入内存缓存
+        private final Map<String, AtomicInteger> diskReads = new ConcurrentHashMap<>();
+
+        private Blob(String hash, String filename, long size) {
+            this.hash = hash;
+            this.filename = filename;
+            this.size = size;
+        }
+    }
+
+    private enum BlobState {
+        WRITING, READY, DELETING
+    }
+
+    private record Preview(String filename, long size) {
+    }
+
+    @FunctionalInterface
+    private interface BlobWriter {
+        void write(Path target) throws IOException;
+    }
+
+    @Autowired
+    public void setMetrics(ChatMetrics metrics) {
+        this.metrics = metrics;
+    }
+
     @PostConstruct
     public void init() {
         logger.info("初始化图片缓存服务...");
+        memoryCache = new ImageMemoryCache(cacheMaxBytes, cacheMaxEntryBytes);
+        previewGenerator = new ImagePreviewGenerator(
+            Arrays.stream(previewSizes).boxed().toList(), previewThreads, previewQueueSize);
+        logger.info("内存缓存预算: {}KB, 单张上限: {}KB", cacheMaxBytes / 1024, cacheMaxEntryBytes / 1024);
         logger.info("上传路径: {}", uploadPath);
         try {
             Path path = Paths.get(uploadPath);
@@ -35,71 +138,378 @@ public class ImageCacheService {
                 Files.createDirectories(path);
                 logger.info("创建上传目录: {}", path);
             }
-            // 启动时清理所有旧文件
-            int cleanedFiles = cleanupDirectory(path);
-            logger.info("启动时清理完成，共清理 {} 个文件", cleanedFiles);
+            // 启动时扫描一次目录，删除已过期文件并重建过期索引
+            long start = System.nanoTime();
+            int cleanedFiles = rebuildIndex(path);
+            metrics.cleanupCompleted("startup", System.nanoTime() - start);
+            logger.info("启动时清理完成，共清理 {} 个文件，保留 {} 个文件", cleanedFiles, blobs.size());
         } catch (IOException e) {
             logger.error("初始化上传目录失败: {}", e.getMessage());
         }
     }
 
+    @PreDestroy
+    public void destroy() {
+        previewGenerator.shutdown();
+    }
+
     public String saveImage(MultipartFile file) throws IOException {
         String originalFilename = file.getOriginalFilename();
-        String extension = originalFilename != null ? originalFilename.substring(originalFilename.lastIndexOf(".")) : ".png";
-        String filename = UUID.randomUUID().toString() + extension;
-        
-        Path filePath = Paths.get(uploadPath, filename);
-        Files.write(filePath, file.getBytes());
-        logger.info("图片已保存: {}, 大小: {}KB, 将在3分钟后过期", filename, file.getSize() / 1024);
-        
-        return filename;
+        String extension = originalFilename != null && originalFilename.lastIndexOf(".") >= 0
+            ? originalFilename.substring(originalFilename.lastIndexOf(".")) : ".png";
+        return saveImage(file.getBytes(), extension);
     }
 
-    public void saveImage(String filename, byte[] content) {
+    public String saveImage(byte[] content, String extension) {
+        long start = System.nanoTime();
+        MessageDigest digest = newDigest();
+        digest.update(content);
+        String hash = toHash(digest);
+        long expiresAt = System.currentTimeMillis() + EXPIRATION_TIME;
         try {
-            Path filePath = Paths.get(uploadPath, filename);
-            Files.write(filePath, content);
-            logger.info("图片已保存: {}, 大小: {}KB, 将在3分钟后过期", filename, content.length / 1024);
+            Blob blob = acquire(hash, extension, content.length, expiresAt, target -> Files.write(target, content));
+            memoryCache.put(hash, content, blob.expiresAt);
+            String filename = addReference(blob, extension, expiresAt);
+            metrics.imageStored("http", content.length, System.nanoTime() - start);
+            return filename;
         } catch (IOException e) {
             logger.error("保存图片失败: {}", e.getMessage());
             throw new RuntimeException("保存图片失败", e);
         }
     }
 
-    public byte[] getImage(String filename) {
+    /**
+     * 开始一次流式上传，数据分块写入磁盘，大小受 image.upload.max-bytes 限制。
+     */
+    public ImageUpload beginUpload(String extension) throws IOException {
+        Path tempPath = Paths.get(uploadPath, UUID.randomUUID() + ".part");
+        return new ImageUpload(this, tempPath, normalizeExtension(extension), uploadMaxBytes);
+    }
+
+    /**
+     * @param startNanos 上传开始的时间，耗时指标包含接收数据的时间
+     */
+    String commitUpload(Path tempPath, MessageDigest digest, long size, String extension, long startNanos) throws IOException {
+        String hash = toHash(digest);
+        long expiresAt = System.currentTimeMillis() + EXPIRATION_TIME;
+        Blob blob = acquire(hash, extension, size, expiresAt,
+            target -> Files.move(tempPath, target, StandardCopyOption.ATOMIC_MOVE));
+        String filename = addReference(blob, extension, expiresAt);
+        metrics.imageStored("stream", size, System.nanoTime() - startNanos);
+        return filename;
+    }
+
+    /**
+     * 取得内容哈希对应的图片并增加一次引用；内容不存在时才真正写盘。
+     * compute 中只登记引用，写盘、更新修改时间都在锁外完成，不阻塞同一哈希桶上的其他查找。
+     */
+    private Blob acquire(String hash, String extension, long size, long expiresAt, BlobWriter writer) throws IOException {
+        while (true) {
+            Blob[] created = new Blob[1];
+            boolean[] deleting = new boolean[1];
+            Blob blob = blobs.compute(hash, (key, current) -> {
+                if (current == null) {
+                    current = new Blob(key, key + normalizeExtension(extension), size);
+                    created[0] = current;
+                } else if (current.state == BlobState.DELETING) {
+                    deleting[0] = true;
+                    return current;
+                }
+                current.refs++;
+                current.expiresAt = Math.max(current.expiresAt, expiresAt);
+                return current;
+            });
+            if (deleting[0]) {
+                // 旧内容正在删除，删完后重新登记为新内容
+                blob.deleted.join();
+                continue;
+            }
+            if (created[0] != null) {
+                write(blob, writer);
+                return blob;
+            }
+            try {
+                blob.written.join();
+            } catch (CompletionException e) {
+                rollback(blob);
+                throw new IOException("保存图片失败: " + blob.filename, e.getCause());
+            }
+            // 修改时间记录最后一次引用，重启后据此恢复过期时间
+            Files.setLastModifiedTime(Paths.get(uploadPath, blob.filename), FileTime.fromMillis(expiresAt - EXPIRATION_TIME));
+            logger.info("图片内容已存在，复用: {}", blob.filename);
+            return blob;
+        }
+    }
+
+    /**
+     * 新登记的内容在锁外写盘，成功后发布为 READY，失败时撤销本次引用。
+     */
+    private void write(Blob blob, BlobWriter writer) throws IOException {
+        Path target = Paths.get(uploadPath, blob.filename);
         try {
-            Path filePath = Paths.get(uploadPath, filename);
-            if (!Files.exists(filePath)) {
-                logger.info("图片不存在: {}", filename);
-                return null;
+            writer.write(target);
+        } catch (IOException | RuntimeException e) {
+            removeImage(target);
+            rollback(blob);
+            blob.written.completeExceptionally(e);
+            throw e;
+        }
+        blobs.computeIfPresent(blob.hash, (key, current) -> {
+            if (current == blob) {
+                current.state = BlobState.READY;
             }
+            return current;
+        });
+        blob.written.complete(null);
+        schedulePreviews(blob);
+    }
 
-            // 检查文件是否过期
-            BasicFileAttributes attrs = Files.readAttributes(filePath, BasicFileAttributes.class);
-            long creationTime = attrs.creationTime().toMillis();
-            long currentTime = System.currentTimeMillis();
-            long age = currentTime - creationTime;
-            
-            if (age > EXPIRATION_TIME) {
-                logger.info("图片已过期: {}, 年龄: {}秒", filename, age / 1000);
-                removeImage(filePath);
-                return null;
+    /**
+     * 写盘失败时撤销一次引用，最后一个引用撤销后移除登记。
+     */
+    private void rollback(Blob blob) {
+        blobs.computeIfPresent(blob.hash, (key, current) -> {
+            if (current != blob) {
+                return current;
             }
+            return --current.refs > 0 ? current : null;
+        });
+    }
 
-            byte[] content = Files.readAllBytes(filePath);
-            logger.info("读取图片: {}, 大小: {}KB, 剩余时间: {}秒", 
-                filename, content.length / 1024, (EXPIRATION_TIME - age) / 1000);
-            return content;
-        } catch (IOException e) {
-            logger.error("读取图片失败: {}", e.getMessage());
+    private String addReference(Blob blob, String extension, long expiresAt) {
+        long createdAt = expiresAt - EXPIRATION_TIME;
+        String filename = blob.hash + "-" + Long.toString(createdAt, Character.MAX_RADIX) + "-"
+            + String.format("%08x", ThreadLocalRandom.current().nextInt()) + normalizeExtension(extension);
+        expiryIndex.add(filename, blob.size, expiresAt);
+        logger.info("图片已保存: {}, 大小: {}KB, 将在3分钟后过期", filename, blob.size / 1024);
+        return filename;
+    }
+
+    /**
+     * 一条引用过期，引用数归零时删除图片内容及其缩略图。
+     * compute 中只把图片标记为 DELETING，删除文件在锁外进行，删完后再移除登记。
+     */
+    private void release(String hash) {
+        Blob[] doomed = new Blob[1];
+        blobs.computeIfPresent(hash, (key, blob) -> {
+            if (--blob.refs > 0) {
+                return blob;
+            }
+            blob.state = BlobState.DELETING;
+            doomed[0] = blob;
+            return blob;
+        });
+        Blob blob = doomed[0];
+        if (blob == null) {
+            return;
+        }
+        try {
+            memoryCache.remove(hash);
+            removeImage(Paths.get(uploadPath, blob.filename));
+            blob.previews.forEach((size, preview) -> {
+                memoryCache.remove(preview.filename());
+                removeImage(Paths.get(uploadPath, preview.filename()));
+            });
+        } finally {
+            blobs.remove(hash, blob);
+            blob.deleted.complete(null);
+        }
+    }
+
+    /**
+     * 在后台为新图片生成缩略图，生成完成时图片若已被删除则丢弃结果。
+     * 移动文件在锁外进行，登记时图片已开始删除则删掉刚移入的缩略图。
+     */
+    private void schedulePreviews(Blob blob) {
+        previewGenerator.submit(Paths.get(uploadPath, blob.filename), (size, extension, previewFile) -> {
+            if (blobs.get(blob.hash) != blob || blob.state != BlobState.READY) {
+                return;
+            }
+            String previewFilename = blob.hash + "@" + size + extension;
+            Path target = Paths.get(uploadPath, previewFilename);
+            Files.move(previewFile, target, StandardCopyOption.ATOMIC_MOVE);
+            Preview preview = new Preview(previewFilename, Files.size(target));
+            boolean[] registered = new boolean[1];
+            blobs.computeIfPresent(blob.hash, (key, current) -> {
+                if (current == blob && current.state == BlobState.READY) {
+                    current.previews.put(size, preview);
+                    registered[0] = true;
+                }
+                return current;
+            });
+            if (!registered[0]) {
+                removeImage(target);
+            }
+        });
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 不可用", e);
+        }
+    }
+
+    private static String toHash(MessageDigest digest) {
+        return HexFormat.of().formatHex(digest.digest()).substring(0, HASH_HEX_LENGTH);
+    }
+
+    private static String normalizeExtension(String extension) {
+        if (extension == null) {
+            return ".png";
+        }
+        String normalized = extension.toLowerCase(Locale.ROOT);
+        return normalized.matches("\\.[a-z0-9]{1,5}") ? normalized : ".png";
+    }
+
+    /**
+     * 保存 data URL 形式的 base64 图片。
+     * 直接在原字符串上按固定大小的缓冲区边解码边写盘，不再拆分字符串或生成完整的字节数组。
+     */
+    public String saveBase64Image(String dataUrl) throws IOException {
+        int separator = dataUrl.indexOf(',');
+        if (separator < 0) {
+            throw new IOException("无效的图片数据");
+        }
+        int semicolon = dataUrl.indexOf(';');
+        int mimeEnd = semicolon > 0 && semicolon < separator ? semicolon : separator;
+        String mimeType = dataUrl.startsWith("data:") ? dataUrl.substring("data:".length(), mimeEnd) : null;
+
+        ImageUpload upload = beginUpload(extensionForMimeType(mimeType));
+        try (InputStream in = Base64.getDecoder().wrap(new AsciiInputStream(dataUrl, separator + 1))) {
+            byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+            ByteBuffer chunk = ByteBuffer.wrap(buffer);
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                chunk.clear().limit(read);
+                upload.write(chunk);
+            }
+            return upload.commit();
+        } catch (IOException | RuntimeException e) {
+            upload.abort();
+            throw e;
+        }
+    }
+
+    public static String extensionForMimeType(String mimeType) {
+        if (mimeType == null) {
+            return ".png";
+        }
+        return switch (mimeType) {
+            case "image/jpeg", "image/jpg" -> ".jpg";
+            case "image/gif" -> ".gif";
+            case "image/webp" -> ".webp";
+            case "image/bmp" -> ".bmp";
+            default -> ".png";
+        };
+    }
+
+    /**
+     * 把字符串中的 ASCII 字符按字节读出，供 base64 解码器流式消费。
+     */
+    private static class AsciiInputStream extends InputStream {
+        private final String source;
+        private int position;
+
+        AsciiInputStream(String source, int offset) {
+            this.source = source;
+            this.position = offset;
+        }
+
+        @Override
+        public int read() {
+            return position < source.length() ? source.charAt(position++) & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            int available = source.length() - position;
+            if (available <= 0) {
+                return -1;
+            }
+            int count = Math.min(length, available);
+            for (int i = 0; i < count; i++) {
+                buffer[offset + i] = (byte) source.charAt(position++);
+            }
+            return count;
+        }
+    }
+
+    public StoredImage getImage(String filename) {
+        return getImage(filename, null);
+    }
+
+    /**
+     * 查找未过期的图片。
+     * 指定 previewSize 时返回不小于该尺寸的最小缩略图，没有合适的缩略图时返回原图。
+     * 命中内存缓存时直接带上内容；否则只返回文件信息，由调用方从磁盘流式读取或走 sendfile。
+     * 内存缓存只接收上传时写入的图片，以及从磁盘读取达到 image.cache.promote-after-reads 次的热点图片。
+     */
+    public StoredImage getImage(String filename, Integer previewSize) {
+        long now = System.currentTimeMillis();
+        // 整个文件名(含随机数)必须是登记过的引用，过期时间取登记时的值，不信任文件名中的时间
+        Matcher matcher = HANDLE_PATTERN.matcher(filename);
+        ImageExpiryIndex.Entry reference = matcher.matches() ? expiryIndex.get(filename) : null;
+        if (reference == null) {
+            logger.info("图片不存在: {}", filename);
             return null;
         }
+        long expiresAt = reference.expiresAt();
+        Blob blob = blobs.get(matcher.group(1));
+        if (blob == null || blob.state != BlobState.READY || expiresAt <= now) {
+            logger.info("图片不存在或已过期: {}", filename);
+            return null;
+        }
+        String storedFilename = blob.filename;
+        String cacheKey = blob.hash;
+        long size = blob.size;
+        Preview preview = previewSize != null ? choosePreview(blob, previewSize) : null;
+        if (preview != null) {
+            storedFilename = preview.filename();
+            cacheKey = preview.filename();
+            size = preview.size();
+        }
+        Path filePath = Paths.get(uploadPath, storedFilename);
+        // 热点图片直接从内存返回，不访问磁盘
+        ImageMemoryCache.CachedImage cached = memoryCache.get(cacheKey, now);
+        if (cached != null) {
+            return new StoredImage(filename, filePath, size, expiresAt, cached.content());
+        }
+        byte[] content = null;
+        if (size <= cacheMaxEntryBytes && promoteAfterReads > 0
+                && blob.diskReads.computeIfAbsent(cacheKey, key -> new AtomicInteger()).incrementAndGet() >= promoteAfterReads) {
+            try {
+                content = Files.readAllBytes(filePath);
+                memoryCache.put(cacheKey, content, blob.expiresAt);
+            } catch (IOException e) {
+                logger.error("读取图片失败: {}", e.getMessage());
+                return null;
+            }
+        }
+        logger.info("读取图片: {}, 文件: {}, 大小: {}KB, 剩余时间: {}秒", 
+            filename, storedFilename, size / 1024, (expiresAt - now) / 1000);
+        return new StoredImage(filename, filePath, size, expiresAt, content);
+    }
+
+    private static Preview choosePreview(Blob blob, int previewSize) {
+        Preview chosen = null;
+        int chosenSize = Integer.MAX_VALUE;
+        for (Map.Entry<Integer, Preview> entry : blob.previews.entrySet()) {
+            if (entry.getKey() >= previewSize && entry.getKey() < chosenSize) {
+                chosen = entry.getValue();
+                chosenSize = entry.getKey();
+            }
+        }
+        return chosen;
     }
 
     private void removeImage(Path filePath) {
         try {
-            if (Files.exists(filePath)) {
-                Files.delete(filePath);
+            if (Files.deleteIfExists(filePath)) {
                 logger.info("文件已删除: {}", filePath.getFileName());
             }
         } catch (IOException e) {
@@ -107,56 +517,76 @@ public class ImageCacheService {
         }
     }
 
-    @Scheduled(fixedRate = 60000) // 每分钟检查一次过期文件
+    @Scheduled(fixedRateString = "${image.cleanup.interval:1000}") // 只处理已到期的引用，不扫描目录
     public void cleanupExpiredImages() {
-        logger.info("开始定时清理过期图片... 当前时间: {}", LocalDateTime.now().format(formatter));
-        try {
-            Path directory = Paths.get(uploadPath);
-            if (!Files.exists(directory)) {
-                logger.warn("上传目录不存在: {}", uploadPath);
-                return;
-            }
-
-            AtomicInteger cleanedCount = new AtomicInteger(0);
-            Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
-                @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                    long creationTime = attrs.creationTime().toMillis();
-                    long currentTime = System.currentTimeMillis();
-                    long age = currentTime - creationTime;
-                    
-                    if (age > EXPIRATION_TIME) {
-                        logger.info("发现过期文件: {}, 年龄: {}秒", file.getFileName(), age / 1000);
-                        removeImage(file);
-                        cleanedCount.incrementAndGet();
-                    }
-                    return FileVisitResult.CONTINUE;
-                }
-            });
-            
-            logger.info("定时清理完成，共清理 {} 个过期文件", cleanedCount.get());
-        } catch (IOException e) {
-            logger.error("清理过期图片失败: {}", e.getMessage());
+        long start = System.nanoTime();
+        int expiredCount = expiryIndex.drainExpired(entry -> {
+            logger.info("图片引用过期: {}", entry.filename());
+            release(entry.filename().substring(0, HASH_HEX_LENGTH));
+        });
+        if (expiredCount > 0) {
+            logger.info("定时清理完成，共过期 {} 个图片引用，剩余图片 {} 个，当前时间: {}",
+                expiredCount, blobs.size(), LocalDateTime.now().format(formatter));
         }
+        metrics.cleanupCompleted("scheduled", System.nanoTime() - start);
+        logger.debug("内存缓存状态: 条目={}, 占用={}KB, 命中={}, 未命中={}, 淘汰={}",
+            memoryCache.size(), memoryCache.getCurrentBytes() / 1024,
+            memoryCache.getHitCount(), memoryCache.getMissCount(), memoryCache.getEvictionCount());
+    }
+
+    public ImageMemoryCache getMemoryCache() {
+        return memoryCache;
     }
 
-    private int cleanupDirectory(Path directory) {
+    private int rebuildIndex(Path directory) {
         AtomicInteger count = new AtomicInteger(0);
+        long now = System.currentTimeMillis();
+        List<Path> previewFiles = new ArrayList<>();
         try {
-            if (Files.exists(directory)) {
-                Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
-                    @Override
-                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+            Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    String filename = file.getFileName().toString();
+                    if (file.getParent().equals(directory) && PREVIEW_PATTERN.matcher(filename).matches()) {
+                        previewFiles.add(file);
+                        return FileVisitResult.CONTINUE;
+                    }
+                    Matcher matcher = BLOB_PATTERN.matcher(filename);
+                    long expiresAt = attrs.lastModifiedTime().toMillis() + EXPIRATION_TIME;
+                    // 修改时间对应最后一次引用，重启前的引用合并为一条，到期后删除内容；
+                    // 未完成的上传、旧格式文件和已过期文件直接删除
+                    if (file.getParent().equals(directory) && matcher.matches() && expiresAt > now) {
+                        Blob blob = new Blob(matcher.group(1), filename, attrs.size());
+                        blob.refs = 1;
+                        blob.expiresAt = expiresAt;
+                        blob.state = BlobState.READY;
+                        blob.written.complete(null);
+                        blobs.put(blob.hash, blob);
+                        expiryIndex.add(filename, attrs.size(), expiresAt);
+                    } else {
                         Files.delete(file);
                         logger.info("清理旧文件: {}", file);
                         count.incrementAndGet();
-                        return FileVisitResult.CONTINUE;
                     }
-                });
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            // 缩略图跟随原图保留或删除
+            for (Path file : previewFiles) {
+                String filename = file.getFileName().toString();
+                Matcher matcher = PREVIEW_PATTERN.matcher(filename);
+                matcher.matches();
+                Blob blob = blobs.get(matcher.group(1));
+                if (blob != null) {
+                    blob.previews.put(Integer.parseInt(matcher.group(2)), new Preview(filename, Files.size(file)));
+                } else {
+                    Files.delete(file);
+                    count.incrementAndGet();
+                }
             }
         } catch (IOException e) {
             logger.error("清理目录失败: {}", e.getMessage());
         }
         return count.get();
     }
-} 
\ No newline at end of file
+}
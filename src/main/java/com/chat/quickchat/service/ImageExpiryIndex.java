@@ -0,0 +1,68 @@
+package com.chat.quickchat.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 图片引用过期索引。
+ * 按文件名记录每条引用的大小和过期时间；
+ * 过期顺序由延迟队列维护，清理只处理已经到期的条目，与目录大小无关。
+ */
+public class ImageExpiryIndex {
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final DelayQueue<Expiring> queue = new DelayQueue<>();
+
+    public record Entry(String filename, long size, long expiresAt) {
+    }
+
+    private record Expiring(Entry entry) implements Delayed {
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(entry.expiresAt() - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(entry.expiresAt(), ((Expiring) other).entry.expiresAt());
+        }
+    }
+
+    public void add(String filename, long size, long expiresAt) {
+        Entry entry = new Entry(filename, size, expiresAt);
+        entries.put(filename, entry);
+        queue.put(new Expiring(entry));
+    }
+
+    /**
+     * @return 登记过且还未清理的引用，文件名不完全一致时返回 null
+     */
+    public Entry get(String filename) {
+        return entries.get(filename);
+    }
+
+    /**
+     * 取出所有已到期的条目并逐个交给回调处理。
+     *
+     * @return 处理的条目数
+     */
+    public int drainExpired(Consumer<Entry> onExpired) {
+        int count = 0;
+        Expiring expiring;
+        while ((expiring = queue.poll()) != null) {
+            // 同名文件被重新登记过时，旧的到期记录直接忽略
+            if (entries.remove(expiring.entry().filename(), expiring.entry())) {
+                onExpired.accept(expiring.entry());
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,106 @@
+package com.chat.quickchat.service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 图片内存热缓存。
+ * 按文件名缓存图片内容，总字节数受预算限制，超出时按最近最少使用淘汰；
+ * 每个条目记录与磁盘文件一致的过期时间，过期后不再返回。
+ */
+public class ImageMemoryCache {
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final LinkedHashMap<String, CachedImage> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long currentBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public record CachedImage(byte[] content, long expiresAt) {
+    }
+
+    public ImageMemoryCache(long maxBytes, long maxEntryBytes) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxEntryBytes;
+    }
+
+    public CachedImage get(String filename, long now) {
+        synchronized (entries) {
+            CachedImage entry = entries.get(filename);
+            if (entry != null && entry.expiresAt() > now) {
+                hits.incrementAndGet();
+                return entry;
+            }
+            if (entry != null) {
+                removeEntry(filename);
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void put(String filename, byte[] content, long expiresAt) {
+        if (content.length > maxEntryBytes || content.length > maxBytes) {
+            return;
+        }
+        synchronized (entries) {
+            CachedImage previous = entries.put(filename, new CachedImage(content, expiresAt));
+            if (previous != null) {
+                currentBytes -= previous.content().length;
+            }
+            currentBytes += content.length;
+            // 超出预算时从最久未访问的条目开始淘汰
+            Iterator<Map.Entry<String, CachedImage>> iterator = entries.entrySet().iterator();
+            while (currentBytes > maxBytes && iterator.hasNext()) {
+                Map.Entry<String, CachedImage> eldest = iterator.next();
+                if (eldest.getKey().equals(filename)) {
+                    continue;
+                }
+                currentBytes -= eldest.getValue().content().length;
+                iterator.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    public void remove(String filename) {
+        synchronized (entries) {
+            removeEntry(filename);
+        }
+    }
+
+    private void removeEntry(String filename) {
+        CachedImage removed = entries.remove(filename);
+        if (removed != null) {
+            currentBytes -= removed.content().length;
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public long getCurrentBytes() {
+        synchronized (entries) {
+            return currentBytes;
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.chat.quickchat.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 后台生成图片缩略图。
+ * 使用固定大小的线程池和有界队列，队列满时直接放弃生成，客户端回退到原图。
+ * 生成结果通过回调交还给调用方登记，由调用方负责与原图一起过期。
+ */
+public class ImagePreviewGenerator {
+    private static final Logger logger = LoggerFactory.getLogger(ImagePreviewGenerator.class);
+    // 超过该像素数的图片不生成缩略图，避免解码时占用过多内存
+    private static final long MAX_SOURCE_PIXELS = 50_000_000L;
+
+    private final List<Integer> sizes;
+    private final ThreadPoolExecutor executor;
+
+    @FunctionalInterface
+    public interface Callback {
+        void onPreview(int size, String extension, Path previewFile) throws IOException;
+    }
+
+    public ImagePreviewGenerator(List<Integer> sizes, int threads, int queueSize) {
+        this.sizes = sizes.stream().sorted().toList();
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueSize),
+            runnable -> {
+                Thread thread = new Thread(runnable, "image-preview-" + threadIndex.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            (runnable, pool) -> logger.warn("缩略图队列已满，跳过本次生成"));
+    }
+
+    public List<Integer> getSizes() {
+        return sizes;
+    }
+
+    /**
+     * 提交缩略图生成任务。每个尺寸生成一个临时文件交给回调，回调返回后临时文件若仍存在则删除。
+     */
+    public void submit(Path source, Callback callback) {
+        if (sizes.isEmpty()) {
+            return;
+        }
+        executor.execute(() -> generate(source, callback));
+    }
+
+    private void generate(Path source, Callback callback) {
+        long start = System.currentTimeMillis();
+        try {
+            BufferedImage image = read(source);
+            if (image == null) {
+                return;
+            }
+            boolean hasAlpha = image.getColorModel().hasAlpha();
+            String format = hasAlpha ? "png" : "jpg";
+            for (int size : sizes) {
+                // 原图本身不超过该尺寸时不需要缩略图
+                if (Math.max(image.getWidth(), image.getHeight()) <= size) {
+                    break;
+                }
+                Path temp = Files.createTempFile(source.getParent(), "preview-", ".part");
+                try {
+                    ImageIO.write(scale(image, size, hasAlpha), format, temp.toFile());
+                    callback.onPreview(size, "." + format, temp);
+                } finally {
+                    Files.deleteIfExists(temp);
+                }
+            }
+            logger.info("缩略图生成完成: {}, 耗时: {}ms", source.getFileName(), System.currentTimeMillis() - start);
+        } catch (IOException | RuntimeException e) {
+            logger.error("生成缩略图失败: {}, {}", source.getFileName(), e.getMessage());
+        }
+    }
+
+    private BufferedImage read(Path source) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(source.toFile())) {
+            if (input == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                // 动图保留原图，避免缩略图丢失动画
+                if ("gif".equalsIgnoreCase(reader.getFormatName())) {
+                    return null;
+                }
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if ((long) width * height > MAX_SOURCE_PIXELS) {
+                    logger.warn("图片尺寸过大，不生成缩略图: {}, {}x{}", source.getFileName(), width, height);
+                    return null;
+                }
+                // 按最大缩略图尺寸的两倍降采样解码，减少内存占用
+                int largest = sizes.get(sizes.size() - 1);
+                int subsampling = Math.max(1, Math.max(width, height) / (largest * 2));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage scale(BufferedImage image, int size, boolean hasAlpha) {
+        double ratio = (double) size / Math.max(image.getWidth(), image.getHeight());
+        int width = Math.max(1, (int) Math.round(image.getWidth() * ratio));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * ratio));
+        BufferedImage scaled = new BufferedImage(width, height,
+            hasAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,90 @@
+package com.chat.quickchat.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+
+/**
+ * 一次正在进行的流式图片上传。
+ * 数据分块直接写入临时文件，同时计算内容哈希，不在堆上累积完整图片；超过大小上限立即中止。
+ * 提交后按内容哈希去重，相同内容只保留一份。
+ */
+public class ImageUpload {
+    private static final Logger logger = LoggerFactory.getLogger(ImageUpload.class);
+
+    private final ImageCacheService owner;
+    private final Path tempPath;
+    private final String extension;
+    private final long maxBytes;
+    private final FileChannel channel;
+    private final MessageDigest digest;
+    private final long startNanos = System.nanoTime();
+    private long written;
+    private boolean finished;
+
+    ImageUpload(ImageCacheService owner, Path tempPath, String extension, long maxBytes) throws IOException {
+        this.owner = owner;
+        this.tempPath = tempPath;
+        this.extension = extension;
+        this.maxBytes = maxBytes;
+        this.digest = ImageCacheService.newDigest();
+        this.channel = FileChannel.open(tempPath,
+            StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    public void write(ByteBuffer chunk) throws IOException {
+        if (finished) {
+            throw new IOException("上传已结束: " + tempPath.getFileName());
+        }
+        if (written + chunk.remaining() > maxBytes) {
+            abort();
+            throw new IOException("图片超过大小限制: " + maxBytes / 1024 + "KB");
+        }
+        digest.update(chunk.duplicate());
+        while (chunk.hasRemaining()) {
+            written += channel.write(chunk);
+        }
+    }
+
+    /**
+     * 完成上传。
+     *
+     * @return 本次上传对应的图片文件名
+     */
+    public String commit() throws IOException {
+        if (finished) {
+            throw new IOException("上传已结束: " + tempPath.getFileName());
+        }
+        finished = true;
+        try {
+            channel.close();
+            return owner.commitUpload(tempPath, digest, written, extension, startNanos);
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+    public void abort() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        try {
+            channel.close();
+            Files.deleteIfExists(tempPath);
+        } catch (IOException e) {
+            logger.error("清理未完成的上传失败: {}, {}", tempPath.getFileName(), e.getMessage());
+        }
+    }
+
+    public long getWritten() {
+        return written;
+    }
+}
@@ -0,0 +1,7 @@
+package com.chat.quickchat.service;
+
+/**
+ * 消息日志中的一条记录。offset 在分片内单调递增，prevOffset 指向同一房间的上一条记录，没有时为 -1。
+ */
+public record LogRecord(long offset, long prevOffset, long timestamp, String roomId, byte[] payload) {
+}
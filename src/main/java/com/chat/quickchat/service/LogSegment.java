@@ -0,0 +1,242 @@
+package com.chat.quickchat.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * 消息日志的一个段文件，整段映射到内存，只追加写。
+ * 记录格式: [长度][CRC][偏移][同房间上一条偏移][时间戳][房间名长度][房间名][消息长度][消息]。
+ * 每写入 indexInterval 字节登记一条稀疏索引(偏移 -> 位置)，按偏移读取时只需从最近的索引点向后扫描。
+ * 写入只在所属分片的写线程中进行，读取可在任意线程并发进行。
+ */
+class LogSegment {
+    static final int HEADER_BYTES = Integer.BYTES * 2 + Long.BYTES * 3 + Short.BYTES + Integer.BYTES;
+
+    private final long baseOffset;
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private final int indexInterval;
+    private volatile int writePosition;
+    private int flushedPosition;
+    private int lastIndexedPosition = -1;
+    private volatile long lastOffset = -1;
+    private volatile long lastTimestamp;
+
+    // 稀疏索引，数组扩容后再更新 indexSize，读线程先读 indexSize 再读数组
+    private long[] indexOffsets = new long[64];
+    private int[] indexPositions = new int[64];
+    private volatile int indexSize;
+
+    private LogSegment(long baseOffset, Path path, MappedByteBuffer buffer, int indexInterval) {
+        this.baseOffset = baseOffset;
+        this.path = path;
+        this.buffer = buffer;
+        this.indexInterval = indexInterval;
+    }
+
+    static Path pathFor(Path directory, long baseOffset) {
+        return directory.resolve(String.format("%020d.log", baseOffset));
+    }
+
+    static LogSegment create(Path directory, long baseOffset, int segmentBytes, int indexInterval) throws IOException {
+        Path path = pathFor(directory, baseOffset);
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            return new LogSegment(baseOffset, path, buffer, indexInterval);
+        }
+    }
+
+    /**
+     * 打开已有段并扫描出有效记录的末尾，遇到空白或校验失败的记录即视为末尾。
+     */
+    static LogSegment recover(Path path, long baseOffset, int indexInterval, RecordVisitor visitor) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            LogSegment segment = new LogSegment(baseOffset, path, buffer, indexInterval);
+            int position = 0;
+            LogRecord record;
+            while ((record = segment.readAt(position, buffer.capacity())) != null) {
+                segment.indexIfNeeded(record.offset(), position);
+                segment.lastOffset = record.offset();
+                segment.lastTimestamp = record.timestamp();
+                visitor.visit(record);
+                position += buffer.getInt(position);
+            }
+            segment.writePosition = position;
+            segment.flushedPosition = position;
+            segment.clearTail();
+            return segment;
+        }
+    }
+
+    /**
+     * 崩溃后末尾可能残留写了一半的记录，清零以免之后追加的记录与残留数据拼在一起。
+     */
+    private void clearTail() {
+        int position = writePosition;
+        if (position + Integer.BYTES > buffer.capacity() || buffer.getInt(position) == 0) {
+            return;
+        }
+        byte[] zeros = new byte[8192];
+        ByteBuffer target = buffer.duplicate();
+        target.position(position);
+        while (target.hasRemaining()) {
+            target.put(zeros, 0, Math.min(zeros.length, target.remaining()));
+        }
+        buffer.force(position, buffer.capacity() - position);
+    }
+
+    @FunctionalInterface
+    interface RecordVisitor {
+        void visit(LogRecord record);
+    }
+
+    static int recordSize(byte[] room, byte[] payload) {
+        return HEADER_BYTES + room.length + payload.length;
+    }
+
+    /**
+     * 追加一条记录，空间不足时返回 false，由调用方切换到新段。
+     */
+    boolean append(long offset, long prevOffset, long timestamp, byte[] room, byte[] payload) {
+        int size = recordSize(room, payload);
+        int position = writePosition;
+        if (position + size > buffer.capacity()) {
+            return false;
+        }
+        ByteBuffer target = buffer.duplicate();
+        target.position(position + Integer.BYTES * 2);
+        target.putLong(offset)
+            .putLong(prevOffset)
+            .putLong(timestamp)
+            .putShort((short) room.length)
+            .put(room)
+            .putInt(payload.length)
+            .put(payload);
+        buffer.putInt(position + Integer.BYTES, checksum(position + Integer.BYTES * 2, size - Integer.BYTES * 2));
+        // 长度最后写入，扫描时长度为 0 即表示末尾
+        buffer.putInt(position, size);
+        indexIfNeeded(offset, position);
+        lastOffset = offset;
+        lastTimestamp = timestamp;
+        writePosition = position + size;
+        return true;
+    }
+
+    private void indexIfNeeded(long offset, int position) {
+        if (lastIndexedPosition >= 0 && position - lastIndexedPosition < indexInterval) {
+            return;
+        }
+        int size = indexSize;
+        if (size == indexOffsets.length) {
+            indexOffsets = Arrays.copyOf(indexOffsets, size * 2);
+            indexPositions = Arrays.copyOf(indexPositions, size * 2);
+        }
+        indexOffsets[size] = offset;
+        indexPositions[size] = position;
+        lastIndexedPosition = position;
+        indexSize = size + 1;
+    }
+
+    /**
+     * 按偏移读取记录：先在稀疏索引中找到不大于该偏移的位置，再向后扫描。
+     */
+    LogRecord read(long offset) {
+        int size = indexSize;
+        long[] offsets = indexOffsets;
+        int[] positions = indexPositions;
+        int slot = Arrays.binarySearch(offsets, 0, size, offset);
+        if (slot < 0) {
+            slot = -slot - 2;
+        }
+        if (slot < 0) {
+            return null;
+        }
+        int limit = writePosition;
+        int position = positions[slot];
+        while (position < limit) {
+            LogRecord record = readAt(position, limit);
+            if (record == null || record.offset() > offset) {
+                return null;
+            }
+            if (record.offset() == offset) {
+                return record;
+            }
+            position += buffer.getInt(position);
+        }
+        return null;
+    }
+
+    private LogRecord readAt(int position, int limit) {
+        if (position + HEADER_BYTES > limit) {
+            return null;
+        }
+        int size = buffer.getInt(position);
+        if (size < HEADER_BYTES || position + size > limit) {
+            return null;
+        }
+        if (buffer.getInt(position + Integer.BYTES) != checksum(position + Integer.BYTES * 2, size - Integer.BYTES * 2)) {
+            return null;
+        }
+        ByteBuffer source = buffer.duplicate();
+        source.position(position + Integer.BYTES * 2);
+        long offset = source.getLong();
+        long prevOffset = source.getLong();
+        long timestamp = source.getLong();
+        byte[] room = new byte[source.getShort()];
+        source.get(room);
+        byte[] payload = new byte[source.getInt()];
+        source.get(payload);
+        return new LogRecord(offset, prevOffset, timestamp, new String(room, StandardCharsets.UTF_8), payload);
+    }
+
+    private int checksum(int position, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(position, length));
+        return (int) crc.getValue();
+    }
+
+    /**
+     * 把上次刷盘之后写入的部分刷到磁盘。
+     */
+    void flush() {
+        int position = writePosition;
+        if (position > flushedPosition) {
+            buffer.force(flushedPosition, position - flushedPosition);
+            flushedPosition = position;
+        }
+    }
+
+    boolean isEmpty() {
+        return writePosition == 0;
+    }
+
+    long getBaseOffset() {
+        return baseOffset;
+    }
+
+    long getLastOffset() {
+        return lastOffset;
+    }
+
+    long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    int getSize() {
+        return writePosition;
+    }
+
+    void delete() throws IOException {
+        Files.deleteIfExists(path);
+    }
+}
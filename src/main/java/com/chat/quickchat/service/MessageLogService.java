@@ -0,0 +1,125 @@
+package com.chat.quickchat.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 持久化的聊天消息日志。
+ * 房间按哈希分配到固定数量的分片，每个分片是一组内存映射的只追加段文件；
+ * 写入异步进行并定时组提交刷盘，旧段按总大小和保留时间清理。
+ * 历史消息按偏移分页读取，与内存中的最近消息缓存互补。
+ */
+@Service
+public class MessageLogService {
+    private static final Logger logger = LoggerFactory.getLogger(MessageLogService.class);
+
+    @Value("${chat.log.enabled:true}")
+    private boolean enabled;
+
+    @Value("${chat.log.path:./data/messages}")
+    private String logPath;
+
+    @Value("${chat.log.shards:4}")
+    private int shardCount;
+
+    @Value("${chat.log.segment-bytes:16777216}")
+    private int segmentBytes;
+
+    @Value("${chat.log.index-interval-bytes:4096}")
+    private int indexInterval;
+
+    @Value("${chat.log.queue-size:10000}")
+    private int queueSize;
+
+    @Value("${chat.log.retention-bytes:1073741824}")
+    private long retentionBytes;
+
+    @Value("${chat.log.retention-age:604800000}")
+    private long retentionAge;
+
+    private MessageLogShard[] shards = new MessageLogShard[0];
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled) {
+            logger.info("消息日志未启用");
+            return;
+        }
+        Path root = Paths.get(logPath);
+        MessageLogShard[] created = new MessageLogShard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            created[i] = new MessageLogShard("message-log-" + i, root.resolve("shard-" + i),
+                segmentBytes, indexInterval, queueSize);
+        }
+        shards = created;
+    }
+
+    private MessageLogShard shardFor(String roomId) {
+        return shards[Math.floorMod(roomId.hashCode(), shards.length)];
+    }
+
+    /**
+     * 追加一条已序列化的消息，只入队不等待落盘。
+     */
+    public void append(String roomId, byte[] message) {
+        if (roomId == null || shards.length == 0) {
+            return;
+        }
+        if (!shardFor(roomId).append(roomId, message, System.currentTimeMillis())) {
+            logger.debug("消息日志队列已满，丢弃: roomId={}", roomId);
+        }
+    }
+
+    /**
+     * @param before 只返回偏移小于该值的消息，为空时从最新一条开始
+     * @return 按时间从旧到新排列的消息
+     * @throws IllegalArgumentException before 不是该房间的消息偏移
+     */
+    public List<LogRecord> history(String roomId, Long before, int limit) {
+        if (shards.length == 0 || limit <= 0) {
+            return Collections.emptyList();
+        }
+        return shardFor(roomId).history(roomId, before, limit);
+    }
+
+    public long getDroppedCount() {
+        return Arrays.stream(shards).mapToLong(MessageLogShard::getDroppedCount).sum();
+    }
+
+    public int getQueueDepth() {
+        return Arrays.stream(shards).mapToInt(MessageLogShard::getQueueDepth).sum();
+    }
+
+    @Scheduled(fixedRateString = "${chat.log.flush-interval:200}")
+    public void flush() {
+        for (MessageLogShard shard : shards) {
+            shard.requestFlush();
+        }
+    }
+
+    @Scheduled(fixedRate = 60000)
+    public void enforceRetention() {
+        for (MessageLogShard shard : shards) {
+            shard.requestRetention(retentionBytes, retentionAge);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        for (MessageLogShard shard : shards) {
+            shard.close();
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.chat.quickchat.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 消息日志的一个分片，由若干段文件组成。
+ * 所有写入、刷盘和清理都在分片自己的单线程中按顺序执行，调用方只负责入队；
+ * 队列满时丢弃并计数，不阻塞实时广播。
+ */
+class MessageLogShard {
+    private static final Logger logger = LoggerFactory.getLogger(MessageLogShard.class);
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final int indexInterval;
+    private final ConcurrentSkipListMap<Long, LogSegment> segments = new ConcurrentSkipListMap<>();
+    // 每个房间最新一条记录的偏移，历史查询从这里沿 prevOffset 向前翻页
+    private final Map<String, Long> roomHeads = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor writer;
+    private final AtomicLong droppedCount = new AtomicLong();
+    private LogSegment active;
+    private long nextOffset;
+
+    MessageLogShard(String name, Path directory, int segmentBytes, int indexInterval, int queueSize) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.indexInterval = indexInterval;
+        this.writer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueSize),
+            runnable -> {
+                Thread thread = new Thread(runnable, name + "-writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    private void recover() throws IOException {
+        List<Long> baseOffsets;
+        try (Stream<Path> files = Files.list(directory)) {
+            baseOffsets = files.map(path -> path.getFileName().toString())
+                .filter(name -> name.matches("\\d{20}\\.log"))
+                .map(name -> Long.parseLong(name.substring(0, 20)))
+                .sorted()
+                .toList();
+        }
+        for (long baseOffset : baseOffsets) {
+            LogSegment segment = LogSegment.recover(LogSegment.pathFor(directory, baseOffset), baseOffset, indexInterval,
+                record -> {
+                    roomHeads.put(record.roomId(), record.offset());
+                    nextOffset = record.offset() + 1;
+                });
+            segments.put(baseOffset, segment);
+            nextOffset = Math.max(nextOffset, baseOffset);
+            active = segment;
+        }
+        if (active == null) {
+            active = LogSegment.create(directory, 0, segmentBytes, indexInterval);
+            segments.put(0L, active);
+        }
+        logger.info("消息日志分片已加载: {}, 段数: {}, 房间数: {}, 下一偏移: {}",
+            directory, segments.size(), roomHeads.size(), nextOffset);
+    }
+
+    /**
+     * 异步追加一条消息，队列已满时返回 false。
+     */
+    boolean append(String roomId, byte[] payload, long timestamp) {
+        try {
+            writer.execute(() -> write(roomId, payload, timestamp));
+            return true;
+        } catch (RejectedExecutionException e) {
+            droppedCount.incrementAndGet();
+            return false;
+        }
+    }
+
+    private void write(String roomId, byte[] payload, long timestamp) {
+        byte[] room = roomId.getBytes(StandardCharsets.UTF_8);
+        if (room.length > Short.MAX_VALUE || LogSegment.recordSize(room, payload) > segmentBytes) {
+            droppedCount.incrementAndGet();
+            logger.warn("消息过大，未写入日志: roomId={}, size={}", roomId, payload.length);
+            return;
+        }
+        long offset = nextOffset;
+        long prevOffset = roomHeads.getOrDefault(roomId, -1L);
+        try {
+            if (!active.append(offset, prevOffset, timestamp, room, payload)) {
+                roll();
+                active.append(offset, prevOffset, timestamp, room, payload);
+            }
+        } catch (IOException | RuntimeException e) {
+            droppedCount.incrementAndGet();
+            logger.error("写入消息日志失败: roomId={}, {}", roomId, e.getMessage());
+            return;
+        }
+        nextOffset = offset + 1;
+        roomHeads.put(roomId, offset);
+    }
+
+    private void roll() throws IOException {
+        active.flush();
+        LogSegment segment = LogSegment.create(directory, nextOffset, segmentBytes, indexInterval);
+        segments.put(nextOffset, segment);
+        active = segment;
+    }
+
+    /**
+     * 请求一次组提交刷盘。写线程繁忙导致队列已满时跳过，下一轮再刷。
+     */
+    void requestFlush() {
+        try {
+            writer.execute(() -> active.flush());
+        } catch (RejectedExecutionException ignored) {
+        }
+    }
+
+    /**
+     * 按总大小和时间清理最旧的段，当前写入的段不会被删除。
+     */
+    void requestRetention(long maxBytes, long maxAge) {
+        try {
+            writer.execute(() -> enforceRetention(maxBytes, maxAge));
+        } catch (RejectedExecutionException ignored) {
+        }
+    }
+
+    private void enforceRetention(long maxBytes, long maxAge) {
+        long totalBytes = segments.values().stream().mapToLong(LogSegment::getSize).sum();
+        long deadline = System.currentTimeMillis() - maxAge;
+        int removed = 0;
+        while (segments.size() > 1) {
+            LogSegment oldest = segments.firstEntry().getValue();
+            if (oldest == active || (totalBytes <= maxBytes && oldest.getLastTimestamp() >= deadline)) {
+                break;
+            }
+            segments.remove(oldest.getBaseOffset());
+            totalBytes -= oldest.getSize();
+            try {
+                oldest.delete();
+            } catch (IOException e) {
+                logger.error("删除日志段失败: {}, {}", oldest.getBaseOffset(), e.getMessage());
+            }
+            removed++;
+        }
+        if (removed > 0) {
+            long startOffset = segments.firstKey();
+            roomHeads.values().removeIf(offset -> offset < startOffset);
+            logger.info("清理过期日志段: {} 个, 起始偏移: {}", removed, startOffset);
+        }
+    }
+
+    LogRecord read(long offset) {
+        Map.Entry<Long, LogSegment> entry = segments.floorEntry(offset);
+        return entry != null ? entry.getValue().read(offset) : null;
+    }
+
+    /**
+     * 读取房间中偏移小于 before 的最近 limit 条记录，按时间从旧到新排列；before 为空时从最新一条开始。
+     * before 必须是该房间自己的一条记录(上一页返回的 nextBefore)，直接从它的 prevOffset 继续，
+     * 每页只读取返回的记录。所在的段已被清理时没有更早的消息，返回空列表。
+     *
+     * @throws IllegalArgumentException before 不是该房间的记录
+     */
+    List<LogRecord> history(String roomId, Long before, int limit) {
+        long next = roomHeads.getOrDefault(roomId, -1L);
+        if (before != null) {
+            if (before < segments.firstKey()) {
+                return Collections.emptyList();
+            }
+            LogRecord anchor = read(before);
+            if (anchor == null || !roomId.equals(anchor.roomId())) {
+                throw new IllegalArgumentException("before 不是该房间的消息偏移: " + before);
+            }
+            next = anchor.prevOffset();
+        }
+        List<LogRecord> result = new ArrayList<>(Math.min(limit, 64));
+        while (next >= 0 && result.size() < limit) {
+            LogRecord record = read(next);
+            if (record == null || !roomId.equals(record.roomId())) {
+                break;
+            }
+            result.add(record);
+            next = record.prevOffset();
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    int getQueueDepth() {
+        return writer.getQueue().size();
+    }
+
+    void close() {
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(10, TimeUnit.SECONDS)) {
+                logger.warn("消息日志写线程未能及时退出: {}", directory);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        active.flush();
+    }
+}
@@ -0,0 +1,222 @@
+package com.chat.quickchat.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 每个房间最近消息的内存缓存。
+ * 消息以序列化后的 UTF-8 字节保存在按需扩容的环形数组中，
+ * 用户加入或重连时直接回放；长时间无消息的房间会被回收，内存不随废弃房间增长。
+ * 房间数和缓存字节数在写入时就检查：单个房间超过字节上限时丢弃最旧的消息，
+ * 房间数或总字节数超过上限时按最久没有消息的顺序成批回收房间，不等定时清理。
+ */
+@Service
+public class RoomBacklogService {
+    private static final Logger logger = LoggerFactory.getLogger(RoomBacklogService.class);
+    private static final int INITIAL_CAPACITY = 8;
+
+    @Value("${chat.backlog.capacity:100}")
+    private int capacity;
+
+    @Value("${chat.backlog.idle-timeout:1800000}")
+    private long idleTimeout;
+
+    @Value("${chat.backlog.max-rooms:10000}")
+    private int maxRooms;
+
+    @Value("${chat.backlog.max-room-bytes:1048576}")
+    private long maxRoomBytes;
+
+    @Value("${chat.backlog.max-bytes:67108864}")
+    private long maxBytes;
+
+    private final Map<String, RoomBacklog> rooms = new ConcurrentHashMap<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+    // 同一时间只有一个线程做回收，其他线程照常写入，超出的量由正在回收的线程一并处理
+    private final ReentrantLock evictLock = new ReentrantLock();
+
+    private static final class RoomBacklog {
+        private byte[][] messages = new byte[INITIAL_CAPACITY][];
+        private int head;
+        private int size;
+        private long bytes;
+        private boolean evicted;
+        private volatile long lastActive = System.currentTimeMillis();
+
+        /**
+         * @return 房间已被回收时返回 false，调用方需要重新取房间
+         */
+        synchronized boolean append(byte[] message, int capacity, long maxBytes, AtomicLong totalBytes) {
+            if (evicted) {
+                return false;
+            }
+            lastActive = System.currentTimeMillis();
+            if (size == messages.length && messages.length < capacity) {
+                // 按需扩容，安静的房间只占用很小的数组
+                byte[][] grown = new byte[Math.min(capacity, messages.length * 2)][];
+                for (int i = 0; i < size; i++) {
+                    grown[i] = messages[(head + i) % messages.length];
+                }
+                messages = grown;
+                head = 0;
+            }
+            if (size == messages.length) {
+                removeOldest(totalBytes);
+            }
+            messages[(head + size) % messages.length] = message;
+            size++;
+            bytes += message.length;
+            totalBytes.addAndGet(message.length);
+            while (bytes > maxBytes && size > 0) {
+                removeOldest(totalBytes);
+            }
+            return true;
+        }
+
+        private void removeOldest(AtomicLong totalBytes) {
+            byte[] oldest = messages[head];
+            messages[head] = null;
+            head = (head + 1) % messages.length;
+            size--;
+            bytes -= oldest.length;
+            totalBytes.addAndGet(-oldest.length);
+        }
+
+        synchronized void evict(AtomicLong totalBytes) {
+            evicted = true;
+            totalBytes.addAndGet(-bytes);
+            bytes = 0;
+            size = 0;
+            messages = new byte[0][];
+        }
+
+        synchronized List<byte[]> recent(int limit) {
+            int count = Math.min(limit, size);
+            List<byte[]> result = new ArrayList<>(count);
+            for (int i = size - count; i < size; i++) {
+                result.add(messages[(head + i) % messages.length]);
+            }
+            return result;
+        }
+    }
+
+    public void append(String roomId, byte[] message) {
+        if (roomId == null) {
+            return;
+        }
+        while (true) {
+            RoomBacklog backlog = rooms.get(roomId);
+            if (backlog == null) {
+                if (rooms.size() >= maxRooms) {
+                    evictLeastRecent();
+                }
+                backlog = rooms.computeIfAbsent(roomId, id -> new RoomBacklog());
+            }
+            if (backlog.append(message, capacity, maxRoomBytes, totalBytes)) {
+                break;
+            }
+        }
+        if (totalBytes.get() > maxBytes) {
+            evictLeastRecent();
+        }
+    }
+
+    /**
+     * @return 房间最近的消息，按时间从旧到新排列
+     */
+    public List<byte[]> recent(String roomId, int limit) {
+        RoomBacklog backlog = rooms.get(roomId);
+        return backlog != null ? backlog.recent(Math.max(0, limit)) : Collections.emptyList();
+    }
+
+    public List<byte[]> recent(String roomId) {
+        return recent(roomId, capacity);
+    }
+
+    public int getRoomCount() {
+        return rooms.size();
+    }
+
+    public long getBytes() {
+        return totalBytes.get();
+    }
+
+    /**
+     * 房间数或总字节数超出上限时，从最久没有消息的房间开始回收。
+     * 每次扫描回收一批(上限的 1%)，新房间不断出现时不必每条消息都扫描一遍所有房间。
+     */
+    private void evictLeastRecent() {
+        if (!evictLock.tryLock()) {
+            return;
+        }
+        try {
+            int batch = Math.max(1, maxRooms / 100);
+            int evicted = 0;
+            while (rooms.size() >= maxRooms || totalBytes.get() > maxBytes) {
+                int removed = evict(oldest(batch));
+                if (removed == 0) {
+                    break;
+                }
+                evicted += removed;
+            }
+            if (evicted > 0) {
+                logger.debug("房间消息缓存超出上限，回收最久没有消息的房间: {} 个，剩余 {} 个，{} 字节",
+                    evicted, rooms.size(), totalBytes.get());
+            }
+        } finally {
+            evictLock.unlock();
+        }
+    }
+
+    private List<Map.Entry<String, RoomBacklog>> oldest(int count) {
+        Comparator<Map.Entry<String, RoomBacklog>> byLastActive =
+            Comparator.comparingLong(entry -> entry.getValue().lastActive);
+        // 大顶堆只保留 count 个最旧的房间
+        PriorityQueue<Map.Entry<String, RoomBacklog>> heap = new PriorityQueue<>(count + 1, byLastActive.reversed());
+        for (Map.Entry<String, RoomBacklog> entry : rooms.entrySet()) {
+            heap.offer(Map.entry(entry.getKey(), entry.getValue()));
+            if (heap.size() > count) {
+                heap.poll();
+            }
+        }
+        return new ArrayList<>(heap);
+    }
+
+    private int evict(List<Map.Entry<String, RoomBacklog>> entries) {
+        int removed = 0;
+        for (Map.Entry<String, RoomBacklog> entry : entries) {
+            if (rooms.remove(entry.getKey(), entry.getValue())) {
+                entry.getValue().evict(totalBytes);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    @Scheduled(fixedRate = 60000)
+    public void evictIdleRooms() {
+        long deadline = System.currentTimeMillis() - idleTimeout;
+        int before = rooms.size();
+        evict(rooms.entrySet().stream()
+            .filter(entry -> entry.getValue().lastActive < deadline)
+            .map(entry -> Map.entry(entry.getKey(), entry.getValue()))
+            .toList());
+        int evicted = before - rooms.size();
+        if (evicted > 0) {
+            logger.info("回收空闲房间消息缓存: {} 个，剩余 {} 个，{} 字节", evicted, rooms.size(), totalBytes.get());
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.chat.quickchat.service;
+
+import java.nio.file.Path;
+
+/**
+ * 一张未过期的图片。content 仅在命中内存缓存时不为 null。
+ */
+public record StoredImage(String filename, Path path, long size, long expiresAt, byte[] content) {
+}
@@ -0,0 +1,129 @@
+package com.chat.quickchat.utils;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AES-GCM 加解密引擎，可在多线程下反复使用。
+ * 每个线程复用自己的 Cipher 实例，不再每条消息都 getInstance；
+ * IV 为 12 字节：4 字节随机前缀 + 8 字节递增计数，计数从随机值开始，也不必每次调用 SecureRandom。
+ * 共用同一密钥的多个进程(其他节点、重启后的本节点)各自的起点都是 96 位随机数，IV 序列重叠的概率可以忽略；
+ * 计数若从 0 开始，前缀相同的两个进程从第一条消息起就会重复 IV，对 GCM 是致命的。
+ * 密文格式为 IV + 密文 + 16 字节认证标签，字符串接口使用 Base64。
+ * 任何失败都抛出异常，不会把原文当作密文返回。
+ */
+public class CryptoEngine {
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    public static final int IV_BYTES = 12;
+    public static final int TAG_BYTES = 16;
+
+    private final SecretKeySpec key;
+    private final int ivPrefix;
+    private final AtomicLong ivCounter;
+    private final ThreadLocal<Cipher> ciphers = ThreadLocal.withInitial(CryptoEngine::newCipher);
+
+    public CryptoEngine(byte[] key) {
+        if (key.length != 16 && key.length != 24 && key.length != 32) {
+            throw new IllegalArgumentException("AES 密钥长度必须是 16、24 或 32 字节，当前为 " + key.length);
+        }
+        this.key = new SecretKeySpec(key, "AES");
+        SecureRandom random = new SecureRandom();
+        this.ivPrefix = random.nextInt();
+        this.ivCounter = new AtomicLong(random.nextLong());
+    }
+
+    public static byte[] generateKey() {
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        return key;
+    }
+
+    private static Cipher newCipher() {
+        try {
+            return Cipher.getInstance(TRANSFORMATION);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("当前 JDK 不支持 " + TRANSFORMATION, e);
+        }
+    }
+
+    private GCMParameterSpec nextIv() {
+        byte[] iv = new byte[IV_BYTES];
+        ByteBuffer.wrap(iv).putInt(ivPrefix).putLong(ivCounter.getAndIncrement());
+        return new GCMParameterSpec(TAG_BYTES * 8, iv);
+    }
+
+    public static int encryptedSize(int plaintextSize) {
+        return IV_BYTES + plaintextSize + TAG_BYTES;
+    }
+
+    public byte[] encrypt(byte[] plaintext) {
+        byte[] output = new byte[encryptedSize(plaintext.length)];
+        encrypt(ByteBuffer.wrap(plaintext), ByteBuffer.wrap(output));
+        return output;
+    }
+
+    /**
+     * 加密 input 的剩余内容写入 output，支持直接缓冲区，两者的 position 都会前移。
+     *
+     * @return 写入 output 的字节数
+     */
+    public int encrypt(ByteBuffer input, ByteBuffer output) {
+        GCMParameterSpec iv = nextIv();
+        Cipher cipher = ciphers.get();
+        int start = output.position();
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, key, iv);
+            output.put(iv.getIV());
+            cipher.doFinal(input, output);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("加密失败", e);
+        }
+        return output.position() - start;
+    }
+
+    public byte[] decrypt(byte[] ciphertext) {
+        if (ciphertext.length < IV_BYTES + TAG_BYTES) {
+            throw new IllegalArgumentException("密文长度不足");
+        }
+        byte[] output = new byte[ciphertext.length - IV_BYTES - TAG_BYTES];
+        decrypt(ByteBuffer.wrap(ciphertext), ByteBuffer.wrap(output));
+        return output;
+    }
+
+    /**
+     * 解密 input 的剩余内容(IV + 密文 + 标签)写入 output，认证失败时抛出异常。
+     *
+     * @return 写入 output 的字节数
+     */
+    public int decrypt(ByteBuffer input, ByteBuffer output) {
+        if (input.remaining() < IV_BYTES + TAG_BYTES) {
+            throw new IllegalArgumentException("密文长度不足");
+        }
+        byte[] iv = new byte[IV_BYTES];
+        input.get(iv);
+        Cipher cipher = ciphers.get();
+        int start = output.position();
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BYTES * 8, iv));
+            cipher.doFinal(input, output);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("解密失败，密文无效或已被篡改", e);
+        }
+        return output.position() - start;
+    }
+
+    public String encryptToBase64(String plaintext) {
+        return Base64.getEncoder().encodeToString(encrypt(plaintext.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    public String decryptFromBase64(String encrypted) {
+        return new String(decrypt(Base64.getDecoder().decode(encrypted)), StandardCharsets.UTF_8);
+    }
+}
@@ -1,41 +1,29 @@
 package com.chat.quickchat.utils;
 
-import javax.crypto.Cipher;
-import javax.crypto.spec.SecretKeySpec;
-import java.nio.charset.StandardCharsets;
-import java.util.Base64;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
+/**
+ * 文本消息加解密的静态入口，实际由 {@link CryptoEngine} 完成，引擎在启动时由 CryptoConfig 注入。
+ * 失败时抛出异常，调用方不会拿到未加密的原文。
+ */
 public class EncryptionUtil {
-    private static final Logger logger = LoggerFactory.getLogger(EncryptionUtil.class);
-    private static final String ALGORITHM = "AES";
-    private static final String SECRET_KEY = "QuickChatSecretKey123456789"; // 密钥长度必须是16位
+    private static volatile CryptoEngine engine;
 
-    private static final SecretKeySpec secretKey = new SecretKeySpec(
-            SECRET_KEY.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+    public static void setEngine(CryptoEngine engine) {
+        EncryptionUtil.engine = engine;
+    }
 
-    public static String encrypt(String value) {
-        try {
-            Cipher cipher = Cipher.getInstance(ALGORITHM);
-            cipher.init(Cipher.ENCRYPT_MODE, secretKey);
-            byte[] encryptedBytes = cipher.doFinal(value.getBytes());
-            return Base64.getEncoder().encodeToString(encryptedBytes);
-        } catch (Exception e) {
-            logger.error("加密失败: {}", e.getMessage());
-            return value; // 如果加密失败，返回原文
+    public static CryptoEngine getEngine() {
+        CryptoEngine current = engine;
+        if (current == null) {
+            throw new IllegalStateException("加密引擎尚未初始化");
         }
+        return current;
+    }
+
+    public static String encrypt(String value) {
+        return getEngine().encryptToBase64(value);
     }
 
     public static String decrypt(String encrypted) {
-        try {
-            Cipher cipher = Cipher.getInstance(ALGORITHM);
-            cipher.init(Cipher.DECRYPT_MODE, secretKey);
-            byte[] decryptedBytes = cipher.doFinal(Base64.getDecoder().decode(encrypted));
-            return new String(decryptedBytes);
-        } catch (Exception e) {
-            logger.error("解密失败: {}", e.getMessage());
-            return encrypted; // 如果解密失败，返回原文
-        }
+        return getEngine().decryptFromBase64(encrypted);
     }
-} 
\ No newline at end of file
+}
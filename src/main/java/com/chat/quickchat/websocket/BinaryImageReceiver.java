@@ -0,0 +1,84 @@
+package com.chat.quickchat.websocket;
+
+import com.chat.quickchat.service.ImageCacheService;
+import com.chat.quickchat.service.ImageUpload;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * 接收二进制帧上传的图片。
+ * 帧格式: [4字节头长度][UTF-8 JSON 头][原始图片字节]，
+ * JSON 头与文本消息字段一致(type、chatCode、sender 等)，可带 mimeType。
+ * 图片字节按分片到达的顺序直接写盘，堆内存占用与图片大小无关。
+ */
+class BinaryImageReceiver {
+    private static final int MAX_HEADER_BYTES = 4096;
+
+    private final ImageCacheService imageCacheService;
+    private final ObjectMapper objectMapper;
+    private final ByteBuffer lengthBuffer = ByteBuffer.allocate(Integer.BYTES);
+    private ByteBuffer headerBuffer;
+    private Map<String, Object> header;
+    private ImageUpload upload;
+
+    BinaryImageReceiver(ImageCacheService imageCacheService, ObjectMapper objectMapper) {
+        this.imageCacheService = imageCacheService;
+        this.objectMapper = objectMapper;
+    }
+
+    @SuppressWarnings("unchecked")
+    void accept(ByteBuffer chunk) throws IOException {
+        if (header == null) {
+            while (lengthBuffer.hasRemaining() && chunk.hasRemaining()) {
+                lengthBuffer.put(chunk.get());
+            }
+            if (lengthBuffer.hasRemaining()) {
+                return;
+            }
+            if (headerBuffer == null) {
+                int headerLength = lengthBuffer.getInt(0);
+                if (headerLength <= 0 || headerLength > MAX_HEADER_BYTES) {
+                    throw new IOException("无效的二进制消息头长度: " + headerLength);
+                }
+                headerBuffer = ByteBuffer.allocate(headerLength);
+            }
+            while (headerBuffer.hasRemaining() && chunk.hasRemaining()) {
+                headerBuffer.put(chunk.get());
+            }
+            if (headerBuffer.hasRemaining()) {
+                return;
+            }
+            header = objectMapper.readValue(headerBuffer.array(), Map.class);
+            headerBuffer = null;
+            upload = imageCacheService.beginUpload(
+                ImageCacheService.extensionForMimeType((String) header.get("mimeType")));
+        }
+        if (chunk.hasRemaining()) {
+            upload.write(chunk);
+        }
+    }
+
+    /**
+     * 消息最后一个分片到达后提交上传。
+     *
+     * @return 消息头，content 已替换为图片地址
+     */
+    Map<String, Object> finish() throws IOException {
+        if (upload == null) {
+            throw new IOException("二进制消息不完整");
+        }
+        String filename = upload.commit();
+        header.remove("mimeType");
+        header.put("content", "/api/images/" + filename);
+        return header;
+    }
+
+    void abort() {
+        if (upload != null) {
+            upload.abort();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.chat.quickchat.websocket;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 预编码的广播帧。
+ * 每条消息只序列化、UTF-8 编码一次，同一个实例被房间内所有接收者共享，
+ * 不再为每个接收者重复走转换器和编码。
+ * 由 {@link WireMessage} 生成的帧同时带有二进制编码，发给二进制协议的会话。
+ */
+public final class BroadcastFrame {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final byte[] payload;
+    private final byte[] binary;
+    private volatile String text;
+
+    private BroadcastFrame(byte[] payload, String text) {
+        this(payload, text, null);
+    }
+
+    private BroadcastFrame(byte[] payload, String text, byte[] binary) {
+        this.payload = payload;
+        this.text = text;
+        this.binary = binary;
+    }
+
+    public static BroadcastFrame of(Object message) {
+        try {
+            return new BroadcastFrame(objectMapper.writeValueAsBytes(message), null);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("消息序列化失败", e);
+        }
+    }
+
+    /**
+     * 同时编码 JSON 和二进制两种格式，之后 message 可以继续复用。
+     */
+    public static BroadcastFrame of(WireMessage message) {
+        return new BroadcastFrame(message.toJson(), null, message.encode());
+    }
+
+    public static BroadcastFrame ofPayload(byte[] payload) {
+        return new BroadcastFrame(payload, null);
+    }
+
+    public static BroadcastFrame ofText(String text) {
+        return new BroadcastFrame(text.getBytes(StandardCharsets.UTF_8), text);
+    }
+
+    /**
+     * UTF-8 编码后的帧内容，所有接收者共享，调用方不得修改。
+     */
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    /**
+     * 二进制协议的帧内容，没有二进制编码时为 null，二进制会话此时按 JSON 文本发送。
+     */
+    public byte[] getBinary() {
+        return binary;
+    }
+
+    public String getText() {
+        String result = text;
+        if (result == null) {
+            result = new String(payload, StandardCharsets.UTF_8);
+            text = result;
+        }
+        return result;
+    }
+
+    public int size() {
+        return payload.length;
+    }
+
+    /**
+     * 包装成 STOMP 消息，直接交给 broker 分发，跳过消息转换器。
+     */
+    public Message<byte[]> toMessage() {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create();
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        accessor.setLeaveMutable(true);
+        return MessageBuilder.createMessage(payload, accessor.getMessageHeaders());
+    }
+}
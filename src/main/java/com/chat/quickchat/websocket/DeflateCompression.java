@@ -0,0 +1,215 @@
+package com.chat.quickchat.websocket;
+
+import jakarta.websocket.Extension;
+import jakarta.websocket.Session;
+import org.apache.tomcat.websocket.Transformation;
+import org.apache.tomcat.websocket.WsRemoteEndpointImplBase;
+import org.apache.tomcat.websocket.WsSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * permessage-deflate 压缩的协商和出站控制，STOMP 和原生 /ws 共用。
+ * 协商由 Tomcat 完成，这里在握手前改写客户端的扩展请求(关闭压缩、要求不保留压缩上下文)，
+ * 握手后把会话的压缩 Transformation 包一层：小于阈值的消息、CPU 预算用尽时的消息不压缩直接发出，
+ * 并统计压缩前后字节数和压缩耗时。permessage-deflate 允许逐条消息决定是否压缩，客户端无需改动。
+ * 包装依赖 Tomcat 内部字段，取不到时只做协商控制，压缩照常进行。
+ */
+@Component
+public class DeflateCompression {
+    private static final Logger logger = LoggerFactory.getLogger(DeflateCompression.class);
+    public static final String EXTENSION_NAME = "permessage-deflate";
+    private static final String SERVER_NO_CONTEXT_TAKEOVER = "server_no_context_takeover";
+    private static final String CLIENT_NO_CONTEXT_TAKEOVER = "client_no_context_takeover";
+    private static final long BUDGET_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final Field REMOTE_ENDPOINT_FIELD;
+    private static final Field TRANSFORMATION_FIELD;
+
+    static {
+        Field remote = ReflectionUtils.findField(WsSession.class, "wsRemoteEndpoint");
+        Field transformation = ReflectionUtils.findField(WsRemoteEndpointImplBase.class, "transformation");
+        if (remote != null && transformation != null) {
+            ReflectionUtils.makeAccessible(remote);
+            ReflectionUtils.makeAccessible(transformation);
+        }
+        REMOTE_ENDPOINT_FIELD = transformation != null ? remote : null;
+        TRANSFORMATION_FIELD = remote != null ? transformation : null;
+    }
+
+    private final boolean enabled;
+    private final int minMessageSize;
+    private final boolean serverContextTakeover;
+    private final boolean clientContextTakeover;
+    // 每秒允许花在压缩上的时间，0 为不限制
+    private final long budgetNanos;
+    private final LongAdder sessions = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder compressNanos = new LongAdder();
+    private final LongAdder skippedSmall = new LongAdder();
+    private final LongAdder skippedBudget = new LongAdder();
+    private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+    private final AtomicLong windowNanos = new AtomicLong();
+
+    public DeflateCompression(@Value("${websocket.compression.enabled:true}") boolean enabled,
+                              @Value("${websocket.compression.min-message-size:256}") int minMessageSize,
+                              @Value("${websocket.compression.server-context-takeover:true}") boolean serverContextTakeover,
+                              @Value("${websocket.compression.client-context-takeover:true}") boolean clientContextTakeover,
+                              @Value("${websocket.compression.cpu-budget:0.5}") double cpuBudget) {
+        this.enabled = enabled;
+        this.minMessageSize = minMessageSize;
+        this.serverContextTakeover = serverContextTakeover;
+        this.clientContextTakeover = clientContextTakeover;
+        this.budgetNanos = (long) (cpuBudget * BUDGET_WINDOW_NANOS);
+        if (enabled && REMOTE_ENDPOINT_FIELD == null) {
+            logger.warn("无法访问 Tomcat 的压缩实现，压缩阈值、CPU 预算和压缩统计不生效");
+        }
+    }
+
+    /**
+     * 按配置改写 Sec-WebSocket-Extensions 请求头：关闭压缩时去掉 permessage-deflate，
+     * 不保留上下文时追加 no_context_takeover 参数，Tomcat 会照此协商并在响应中回写。
+     *
+     * @return 改写后的请求头，所有扩展都被去掉时返回 null
+     */
+    public String rewriteOffer(String header) {
+        List<String> offers = new ArrayList<>();
+        for (String offer : header.split(",")) {
+            String trimmed = offer.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            int paramStart = trimmed.indexOf(';');
+            String name = (paramStart < 0 ? trimmed : trimmed.substring(0, paramStart)).trim();
+            if (!EXTENSION_NAME.equalsIgnoreCase(name)) {
+                offers.add(trimmed);
+                continue;
+            }
+            if (!enabled) {
+                continue;
+            }
+            StringBuilder rewritten = new StringBuilder(trimmed);
+            if (!serverContextTakeover && !trimmed.contains(SERVER_NO_CONTEXT_TAKEOVER)) {
+                rewritten.append("; ").append(SERVER_NO_CONTEXT_TAKEOVER);
+            }
+            if (!clientContextTakeover && !trimmed.contains(CLIENT_NO_CONTEXT_TAKEOVER)) {
+                rewritten.append("; ").append(CLIENT_NO_CONTEXT_TAKEOVER);
+            }
+            offers.add(rewritten.toString());
+        }
+        return offers.isEmpty() ? null : String.join(", ", offers);
+    }
+
+    /**
+     * 握手完成后调用，会话协商了压缩时接管它的出站压缩。
+     */
+    public void install(Session session) {
+        if (!(session instanceof WsSession) || !isNegotiated(session)) {
+            return;
+        }
+        sessions.increment();
+        if (REMOTE_ENDPOINT_FIELD == null) {
+            return;
+        }
+        Object remote = ReflectionUtils.getField(REMOTE_ENDPOINT_FIELD, session);
+        Transformation transformation = (Transformation) ReflectionUtils.getField(TRANSFORMATION_FIELD, remote);
+        if (transformation == null || Proxy.isProxyClass(transformation.getClass())) {
+            return;
+        }
+        Transformation wrapped = (Transformation) Proxy.newProxyInstance(Transformation.class.getClassLoader(),
+            new Class<?>[]{Transformation.class}, new DeflateTransformation(transformation, this));
+        ReflectionUtils.setField(TRANSFORMATION_FIELD, remote, wrapped);
+    }
+
+    private static boolean isNegotiated(Session session) {
+        List<Extension> extensions = session.getNegotiatedExtensions();
+        if (extensions == null) {
+            return false;
+        }
+        for (Extension extension : extensions) {
+            if (EXTENSION_NAME.equals(extension.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean isBelowThreshold(long messageSize) {
+        if (messageSize < minMessageSize) {
+            skippedSmall.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 本秒的压缩耗时还没超出预算时返回 true，超出后本秒剩余的消息不压缩。
+     */
+    boolean tryAcquireBudget() {
+        if (budgetNanos <= 0) {
+            return true;
+        }
+        long now = System.nanoTime();
+        long start = windowStart.get();
+        if (now - start >= BUDGET_WINDOW_NANOS && windowStart.compareAndSet(start, now)) {
+            windowNanos.set(0);
+        }
+        if (windowNanos.get() < budgetNanos) {
+            return true;
+        }
+        skippedBudget.increment();
+        return false;
+    }
+
+    void recordCompressed(long in, long out, long nanos) {
+        bytesIn.add(in);
+        bytesOut.add(out);
+        compressNanos.add(nanos);
+        if (budgetNanos > 0) {
+            windowNanos.addAndGet(nanos);
+        }
+    }
+
+    public long getSessionCount() {
+        return sessions.sum();
+    }
+
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    /**
+     * @return 压缩后与压缩前字节数之比，还没有压缩过消息时为 1
+     */
+    public double getRatio() {
+        long in = bytesIn.sum();
+        return in == 0 ? 1.0 : (double) bytesOut.sum() / in;
+    }
+
+    public double getCompressSeconds() {
+        return compressNanos.sum() / 1e9;
+    }
+
+    public long getSkippedSmallCount() {
+        return skippedSmall.sum();
+    }
+
+    public long getSkippedBudgetCount() {
+        return skippedBudget.sum();
+    }
+}
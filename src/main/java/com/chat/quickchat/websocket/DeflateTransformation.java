@@ -0,0 +1,108 @@
+package com.chat.quickchat.websocket;
+
+import org.apache.tomcat.websocket.Transformation;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * 包在 Tomcat 的 permessage-deflate Transformation 外面，只拦截出站的 sendMessagePart。
+ * 以消息为单位决定是否压缩：消息第一个分片就是最后一个分片且小于阈值，或 CPU 预算已用尽时，
+ * 整条消息跳过压缩原样发出(RSV1 为 0)；一条消息开始压缩或跳过后，其后续分片沿用同一决定。
+ * Tomcat 同一会话同一时刻只发送一条消息，这里的状态不会被并发访问。
+ * MessagePart 不是公开类，通过反射读取。
+ */
+class DeflateTransformation implements InvocationHandler {
+    private static final Method SEND_MESSAGE_PART;
+    private static final Method IS_FIN;
+    private static final Method GET_OP_CODE;
+    private static final Method GET_PAYLOAD;
+
+    static {
+        try {
+            SEND_MESSAGE_PART = Transformation.class.getMethod("sendMessagePart", List.class);
+            Class<?> messagePart = Class.forName("org.apache.tomcat.websocket.MessagePart");
+            IS_FIN = messagePart.getMethod("isFin");
+            GET_OP_CODE = messagePart.getMethod("getOpCode");
+            GET_PAYLOAD = messagePart.getMethod("getPayload");
+            IS_FIN.setAccessible(true);
+            GET_OP_CODE.setAccessible(true);
+            GET_PAYLOAD.setAccessible(true);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Transformation delegate;
+    private final DeflateCompression compression;
+    // 当前消息已有分片发出时为 true，bypass 记录这条消息是否跳过了压缩
+    private boolean inMessage;
+    private boolean bypass;
+
+    DeflateTransformation(Transformation delegate, DeflateCompression compression) {
+        this.delegate = delegate;
+        this.compression = compression;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if ("sendMessagePart".equals(method.getName())) {
+            return sendMessagePart((List<?>) args[0]);
+        }
+        if (method.getDeclaringClass() == Object.class) {
+            return switch (method.getName()) {
+                case "equals" -> proxy == args[0];
+                case "hashCode" -> System.identityHashCode(proxy);
+                default -> "DeflateTransformation(" + delegate + ")";
+            };
+        }
+        return call(method, args);
+    }
+
+    private Object sendMessagePart(List<?> parts) throws Throwable {
+        if (parts.isEmpty() || isControl(parts.get(0))) {
+            return call(SEND_MESSAGE_PART, parts);
+        }
+        long in = 0;
+        for (Object part : parts) {
+            in += payload(part).remaining();
+        }
+        boolean fin = (boolean) IS_FIN.invoke(parts.get(parts.size() - 1));
+        if (!inMessage) {
+            bypass = fin && compression.isBelowThreshold(in) || !compression.tryAcquireBudget();
+        }
+        inMessage = !fin;
+        if (bypass) {
+            return parts;
+        }
+        long start = System.nanoTime();
+        List<?> compressed = (List<?>) call(SEND_MESSAGE_PART, parts);
+        long nanos = System.nanoTime() - start;
+        long out = 0;
+        for (Object part : compressed) {
+            out += payload(part).remaining();
+        }
+        compression.recordCompressed(in, out, nanos);
+        return compressed;
+    }
+
+    private Object call(Method method, Object... args) throws Throwable {
+        try {
+            return method.invoke(delegate, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static boolean isControl(Object part) throws ReflectiveOperationException {
+        // 控制帧的操作码最高位为 1，Tomcat 不会压缩控制帧
+        return ((byte) GET_OP_CODE.invoke(part) & 0x08) != 0;
+    }
+
+    private static ByteBuffer payload(Object part) throws ReflectiveOperationException {
+        return (ByteBuffer) GET_PAYLOAD.invoke(part);
+    }
+}
@@ -0,0 +1,132 @@
+package com.chat.quickchat.websocket;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import java.io.IOException;
+
+/**
+ * JSON 文本帧的路由字段，用流式解析器读取，不构建 Map。
+ * 只取出 type、chatCode 和 content 的值，并记下 content、encrypted 在原文中的位置，
+ * 其他字段只跳过不解码。转发时原文保持不变，需要改写 content 时只替换这两个字段，其余字节原样保留。
+ * 整帧仍会被扫描到结尾做语法校验，因为原文会直接转发给其他客户端，也会被拼进合并帧。
+ */
+final class JsonRouting {
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    private final String raw;
+    private String type;
+    private String chatCode;
+    private String content;
+    private int contentStart = -1;
+    private int contentEnd = -1;
+    private int encryptedStart = -1;
+    private int encryptedEnd = -1;
+
+    private JsonRouting(String raw) {
+        this.raw = raw;
+    }
+
+    /**
+     * @throws IOException 不是单个合法的 JSON 对象
+     */
+    static JsonRouting parse(String raw) throws IOException {
+        JsonRouting routing = new JsonRouting(raw);
+        try (JsonParser parser = jsonFactory.createParser(raw)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("消息不是 JSON 对象");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "type" -> routing.type = textValue(parser, value);
+                    case "chatCode" -> routing.chatCode = textValue(parser, value);
+                    case "content" -> {
+                        // 重复的字段会让前一个值原样转发出去，密文消息里可能夹带明文
+                        if (routing.contentStart >= 0) {
+                            throw new IOException("重复的 content 字段");
+                        }
+                        if (value != JsonToken.VALUE_STRING && value != JsonToken.VALUE_NULL) {
+                            throw new IOException("content 必须是字符串");
+                        }
+                        routing.contentStart = offset(parser.currentTokenLocation().getCharOffset());
+                        routing.content = textValue(parser, value);
+                        parser.finishToken();
+                        routing.contentEnd = offset(parser.currentLocation().getCharOffset());
+                    }
+                    case "encrypted" -> {
+                        if (routing.encryptedStart >= 0) {
+                            throw new IOException("重复的 encrypted 字段");
+                        }
+                        routing.encryptedStart = offset(parser.currentTokenLocation().getCharOffset());
+                        parser.skipChildren();
+                        parser.finishToken();
+                        routing.encryptedEnd = offset(parser.currentLocation().getCharOffset());
+                    }
+                    default -> parser.skipChildren();
+                }
+            }
+            if (parser.currentToken() != JsonToken.END_OBJECT || parser.nextToken() != null) {
+                throw new IOException("JSON 对象之后还有多余内容");
+            }
+        }
+        return routing;
+    }
+
+    private static String textValue(JsonParser parser, JsonToken value) throws IOException {
+        return value == JsonToken.VALUE_STRING ? parser.getText() : null;
+    }
+
+    private static int offset(long charOffset) throws IOException {
+        if (charOffset < 0) {
+            throw new IOException("无法定位字段位置");
+        }
+        return (int) charOffset;
+    }
+
+    String getType() {
+        return type;
+    }
+
+    String getChatCode() {
+        return chatCode;
+    }
+
+    /**
+     * @return content 的值，字段不存在或为 null 时为 null
+     */
+    String getContent() {
+        return content;
+    }
+
+    /**
+     * 把 content 替换为 value，encrypted 为 true 时同时把 encrypted 字段置为 true(不存在则紧跟 content 之后插入)。
+     * 其余字段的字节、顺序和空白都保持原样。
+     */
+    String withContent(String value, boolean encrypted) {
+        String quoted = '"' + new String(JsonStringEncoder.getInstance().quoteAsString(value)) + '"';
+        StringBuilder result = new StringBuilder(raw.length() + quoted.length() + 20);
+        if (!encrypted || encryptedStart < 0) {
+            result.append(raw, 0, contentStart).append(quoted);
+            if (encrypted) {
+                result.append(",\"encrypted\":true");
+            }
+            return result.append(raw, contentEnd, raw.length()).toString();
+        }
+        // 两个字段的替换按在原文中的先后顺序进行
+        boolean contentFirst = contentStart < encryptedStart;
+        int firstStart = contentFirst ? contentStart : encryptedStart;
+        int firstEnd = contentFirst ? contentEnd : encryptedEnd;
+        int secondStart = contentFirst ? encryptedStart : contentStart;
+        int secondEnd = contentFirst ? encryptedEnd : contentEnd;
+        return result.append(raw, 0, firstStart)
+            .append(contentFirst ? quoted : "true")
+            .append(raw, firstEnd, secondStart)
+            .append(contentFirst ? "true" : quoted)
+            .append(raw, secondEnd, raw.length())
+            .toString();
+    }
+}
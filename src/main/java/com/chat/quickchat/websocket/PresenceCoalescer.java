@@ -0,0 +1,38 @@
+package com.chat.quickchat.websocket;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * 合并房间在线人数的变化。
+ * 加入、离开只把房间标记为待刷新，由定时任务按固定节拍统一处理，每个房间每拍最多广播一次最新人数，
+ * 大量用户同时进出时不会为每次变化都向整个房间广播。
+ */
+public class PresenceCoalescer {
+    private final Set<String> dirtyRooms = ConcurrentHashMap.newKeySet();
+
+    public void markDirty(String roomId) {
+        dirtyRooms.add(roomId);
+    }
+
+    /**
+     * 取出所有待刷新的房间逐个处理。处理期间再次变化的房间会留到下一拍。
+     */
+    public int flush(Consumer<String> action) {
+        int flushed = 0;
+        Iterator<String> iterator = dirtyRooms.iterator();
+        while (iterator.hasNext()) {
+            String roomId = iterator.next();
+            iterator.remove();
+            action.accept(roomId);
+            flushed++;
+        }
+        return flushed;
+    }
+
+    public int getPendingCount() {
+        return dirtyRooms.size();
+    }
+}
@@ -0,0 +1,113 @@
+package com.chat.quickchat.websocket;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 房间 -> 成员 索引。
+ * 会话所在房间与房间成员集合同步维护，在线人数由成员集合派生，
+ * 广播时只需遍历目标房间自己的成员。
+ * 读(成员遍历、在线人数)不加锁；成员增删仍通过 compute 在房间所在的桶上串行，
+ * 最后一人离开时移除房间和新成员加入不会交错，新成员不会落进已被移除的房间。
+ */
+public class RoomRegistry {
+    private final Map<String, String> sessionRooms = new ConcurrentHashMap<>();
+    private final Map<String, Room> rooms = new ConcurrentHashMap<>();
+
+    private static final class Room {
+        private final Set<String> members = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * 会话加入房间，如果之前在其他房间则先离开。
+     *
+     * @return 之前所在的房间，没有或与新房间相同时返回 null
+     */
+    public String join(String sessionId, String roomId) {
+        String oldRoomId = assign(sessionId, roomId);
+        if (roomId.equals(oldRoomId)) {
+            return null;
+        }
+        if (oldRoomId != null) {
+            removeMember(oldRoomId, sessionId);
+        }
+        addMember(roomId, sessionId);
+        return oldRoomId;
+    }
+
+    /**
+     * 会话离开当前房间。
+     *
+     * @return 离开的房间，会话不在任何房间时返回 null
+     */
+    public String leave(String sessionId) {
+        String roomId = unassign(sessionId);
+        if (roomId != null) {
+            removeMember(roomId, sessionId);
+        }
+        return roomId;
+    }
+
+    /**
+     * 只记录会话所在的房间，成员集合由调用方随后通过 {@link #addMember}、{@link #removeMember} 更新，
+     * 用于成员变化需要放到房间自己的线程上执行的场景。
+     *
+     * @return 之前所在的房间，可能与新房间相同
+     */
+    public String assign(String sessionId, String roomId) {
+        return sessionRooms.put(sessionId, roomId);
+    }
+
+    /**
+     * @return 会话之前所在的房间，成员集合同样由调用方更新
+     */
+    public String unassign(String sessionId) {
+        return sessionRooms.remove(sessionId);
+    }
+
+    public void addMember(String roomId, String sessionId) {
+        rooms.compute(roomId, (id, room) -> {
+            if (room == null) {
+                room = new Room();
+            }
+            room.members.add(sessionId);
+            return room;
+        });
+    }
+
+    public void removeMember(String roomId, String sessionId) {
+        rooms.computeIfPresent(roomId, (id, room) -> {
+            room.members.remove(sessionId);
+            // 房间没人时移除，避免空房间堆积
+            return room.members.isEmpty() ? null : room;
+        });
+    }
+
+    public String getRoom(String sessionId) {
+        return sessionRooms.get(sessionId);
+    }
+
+    public Set<String> getMembers(String roomId) {
+        Room room = rooms.get(roomId);
+        return room != null ? Collections.unmodifiableSet(room.members) : Collections.emptySet();
+    }
+
+    public int getOnlineCount(String roomId) {
+        Room room = rooms.get(roomId);
+        return room != null ? room.members.size() : 0;
+    }
+
+    public boolean hasRoom(String roomId) {
+        return rooms.containsKey(roomId);
+    }
+
+    public int getRoomCount() {
+        return rooms.size();
+    }
+
+    public int getSessionCount() {
+        return sessionRooms.size();
+    }
+}
@@ -0,0 +1,139 @@
+package com.chat.quickchat.websocket;
+
+import com.chat.quickchat.ratelimit.RateLimiter;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 原生 /ws 房间的分片执行器。房间按房间号哈希到固定的一组单线程执行器上，
+ * 同一房间的成员变化、历史回放、广播和在线人数刷新都在所属分片上按提交顺序执行，
+ * 房间内的所有接收者看到的消息顺序一致，也不会有两个线程同时改动同一房间。
+ * 分片上只做入队和登记，图片落盘、加密等耗时处理仍在收消息的线程上完成。
+ * 每个分片的队列有上限，一个慢分片不会无限缓冲：广播等可以丢弃的任务在队列满时直接被拒绝，
+ * 成员变化这类不能丢的任务则等待队列腾出空位。各分片的积压量同时登记为准入检查的来源。
+ */
+@Component
+public class RoomShards {
+    private static final Logger logger = LoggerFactory.getLogger(RoomShards.class);
+
+    private final ThreadPoolExecutor[] shards;
+    private final LongAdder rejected = new LongAdder();
+
+    public RoomShards(@Value("${websocket.shards.count:0}") int count,
+                      @Value("${websocket.shards.queue-capacity:10000}") int queueCapacity,
+                      RateLimiter rateLimiter) {
+        int size = count > 0 ? count : Runtime.getRuntime().availableProcessors();
+        this.shards = new ThreadPoolExecutor[size];
+        for (int i = 0; i < size; i++) {
+            String name = "room-shard-" + i;
+            shards[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, name);
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            // 分片线程常驻，executeOrWait 直接往队列里放的任务也有线程取
+            shards[i].prestartAllCoreThreads();
+        }
+        rateLimiter.addLoadSource(this::getQueuedCount);
+        logger.info("原生 /ws 房间分片数: {}, 每个分片队列上限: {}", size, queueCapacity);
+    }
+
+    /**
+     * 在房间所属的分片上执行，同一房间的任务按提交顺序逐个执行。
+     * 任务抛出的异常只记录日志，不影响同一分片上后续的任务。
+     *
+     * @return 分片队列已满或已关闭时不执行，返回 false，由调用方拒绝或丢弃
+     */
+    public boolean execute(String roomId, Runnable task) {
+        try {
+            shards[shardOf(roomId)].execute(wrap(roomId, task));
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            logger.debug("房间分片队列已满，拒绝任务: roomId={}", roomId);
+            return false;
+        }
+    }
+
+    /**
+     * 不能丢弃的任务(成员加入、离开)：分片队列已满时阻塞调用线程直到有空位，以背压代替丢弃，
+     * 房间成员登记不会因为拥塞和会话实际所在的房间不一致。
+     */
+    public void executeOrWait(String roomId, Runnable task) {
+        ThreadPoolExecutor shard = shards[shardOf(roomId)];
+        Runnable wrapped = wrap(roomId, task);
+        try {
+            shard.execute(wrapped);
+        } catch (RejectedExecutionException e) {
+            if (shard.isShutdown()) {
+                return;
+            }
+            try {
+                shard.getQueue().put(wrapped);
+            } catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+                logger.warn("等待房间分片队列时被中断，任务未执行: roomId={}", roomId);
+            }
+        }
+    }
+
+    private static Runnable wrap(String roomId, Runnable task) {
+        return () -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.error("房间任务执行失败: roomId={}", roomId, e);
+            }
+        };
+    }
+
+    int shardOf(String roomId) {
+        if (roomId == null) {
+            return 0;
+        }
+        int hash = roomId.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), shards.length);
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    public int getQueuedCount(int shard) {
+        return shards[shard].getQueue().size();
+    }
+
+    public long getCompletedCount(int shard) {
+        return shards[shard].getCompletedTaskCount();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public int getQueuedCount() {
+        int queued = 0;
+        for (ThreadPoolExecutor shard : shards) {
+            queued += shard.getQueue().size();
+        }
+        return queued;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (ThreadPoolExecutor shard : shards) {
+            shard.shutdown();
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.chat.quickchat.websocket;
+
+import com.chat.quickchat.metrics.FanoutLatch;
+import jakarta.websocket.CloseReason;
+import jakarta.websocket.SendResult;
+import jakarta.websocket.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单个会话的出站队列。
+ * 广播线程只负责入队，队列通过异步发送逐条发出，同一时刻最多一条在途消息；
+ * 队列条数、字节数超限或单条发送超时的慢客户端会被断开，不再拖慢整个房间。
+ * 开启合并发送时，上一条发送期间积压的消息会合并成一个 JSON 数组帧一次发出；
+ * 空闲时队列里只有一条消息，仍按原样立即发送，延迟不变。
+ * 二进制协议的会话收到带二进制编码的帧时以二进制帧单独发出，不参与合并。
+ */
+public class SessionOutbound {
+    private static final Logger logger = LoggerFactory.getLogger(SessionOutbound.class);
+    // 所有会话累计的发送失败和慢客户端断开次数，供指标读取
+    private static final LongAdder failedSends = new LongAdder();
+    private static final LongAdder slowConsumers = new LongAdder();
+
+    private final Session session;
+    private final int maxQueueSize;
+    private final long maxQueueBytes;
+    private final int maxBatchBytes;
+    private final boolean binary;
+    private final Queue<Pending> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queuedCount = new AtomicInteger();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicBoolean sending = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private record Pending(BroadcastFrame frame, FanoutLatch latch) {
+        void arrive() {
+            if (latch != null) {
+                latch.arrive();
+            }
+        }
+    }
+
+    public SessionOutbound(Session session, int maxQueueSize, long maxQueueBytes, long sendTimeLimit) {
+        this(session, maxQueueSize, maxQueueBytes, sendTimeLimit, 0);
+    }
+
+    /**
+     * @param maxBatchBytes 合并帧的最大字节数，为 0 时不合并
+     */
+    public SessionOutbound(Session session, int maxQueueSize, long maxQueueBytes, long sendTimeLimit, int maxBatchBytes) {
+        this(session, maxQueueSize, maxQueueBytes, sendTimeLimit, maxBatchBytes, false);
+    }
+
+    /**
+     * @param binary 会话协商了二进制协议，优先发送帧的二进制编码
+     */
+    public SessionOutbound(Session session, int maxQueueSize, long maxQueueBytes, long sendTimeLimit,
+                           int maxBatchBytes, boolean binary) {
+        this.session = session;
+        this.maxQueueSize = maxQueueSize;
+        this.maxQueueBytes = maxQueueBytes;
+        this.maxBatchBytes = maxBatchBytes;
+        this.binary = binary;
+        // 异步发送超过该时间未完成会以失败结果回调，进而断开连接
+        session.getAsyncRemote().setSendTimeout(sendTimeLimit);
+    }
+
+    public Session getSession() {
+        return session;
+    }
+
+    /**
+     * 消息入队并尝试发送，不会阻塞调用线程。
+     *
+     * @return 入队成功返回 true；会话已关闭或因超限被断开时返回 false
+     */
+    public boolean send(BroadcastFrame frame) {
+        return send(frame, null);
+    }
+
+    /**
+     * @param latch 广播的扇出计时，消息写出、发送失败或会话关闭时 arrive，可以为 null
+     */
+    public boolean send(BroadcastFrame frame, FanoutLatch latch) {
+        if (closed.get()) {
+            return false;
+        }
+        if (latch != null) {
+            latch.retain();
+        }
+        int count = queuedCount.incrementAndGet();
+        long bytes = queuedBytes.addAndGet(frame.size());
+        queue.offer(new Pending(frame, latch));
+        if (closed.get()) {
+            // close() 可能在上面的检查和入队之间已经清空过队列，刚入队的消息由这里放掉
+            discardQueued();
+            return false;
+        }
+        if (count > maxQueueSize || bytes > maxQueueBytes) {
+            logger.warn("客户端消费过慢，断开连接: sessionId={}, 队列条数={}, 队列字节={}",
+                session.getId(), count, bytes);
+            slowConsumers.increment();
+            close(new CloseReason(CloseReason.CloseCodes.TRY_AGAIN_LATER, "slow consumer"));
+            return false;
+        }
+        drain();
+        return true;
+    }
+
+    private void drain() {
+        if (closed.get() || !sending.compareAndSet(false, true)) {
+            return;
+        }
+        Pending pending = queue.poll();
+        if (pending == null) {
+            sending.set(false);
+            // 释放标记后可能有新消息入队，需要再检查一次
+            if (!queue.isEmpty()) {
+                drain();
+            }
+            return;
+        }
+        boolean sendBinary = sendsBinary(pending);
+        if (maxBatchBytes > 0 && !sendBinary && !queue.isEmpty()) {
+            sendBatch(pending);
+            return;
+        }
+        BroadcastFrame frame = pending.frame();
+        List<Pending> sent = List.of(pending);
+        try {
+            if (sendBinary) {
+                session.getAsyncRemote().sendBinary(ByteBuffer.wrap(frame.getBinary()),
+                    result -> onSent(sent, frame.size(), result));
+            } else {
+                session.getAsyncRemote().sendText(frame.getText(), result -> onSent(sent, frame.size(), result));
+            }
+        } catch (RuntimeException e) {
+            onSent(sent, frame.size(), new SendResult(e));
+        }
+    }
+
+    /**
+     * 把积压的消息拼成 [消息1,消息2,...] 一次发出，只有持有发送标记的线程会取队列，peek 后 poll 是安全的。
+     */
+    private void sendBatch(Pending first) {
+        ByteArrayOutputStream batch = new ByteArrayOutputStream(Math.min(maxBatchBytes, 8192));
+        batch.write('[');
+        batch.writeBytes(first.frame().getPayload());
+        List<Pending> sent = new ArrayList<>();
+        sent.add(first);
+        long bytes = first.frame().size();
+        Pending next;
+        while ((next = queue.peek()) != null && !sendsBinary(next) && bytes + next.frame().size() <= maxBatchBytes) {
+            queue.poll();
+            batch.write(',');
+            batch.writeBytes(next.frame().getPayload());
+            sent.add(next);
+            bytes += next.frame().size();
+        }
+        batch.write(']');
+        long sentBytes = bytes;
+        try {
+            session.getAsyncRemote().sendText(batch.toString(StandardCharsets.UTF_8),
+                result -> onSent(sent, sentBytes, result));
+        } catch (RuntimeException e) {
+            onSent(sent, sentBytes, new SendResult(e));
+        }
+    }
+
+    private boolean sendsBinary(Pending pending) {
+        return binary && pending.frame().getBinary() != null;
+    }
+
+    private void onSent(List<Pending> sent, long bytes, SendResult result) {
+        queuedCount.addAndGet(-sent.size());
+        queuedBytes.addAndGet(-bytes);
+        sending.set(false);
+        sent.forEach(Pending::arrive);
+        if (!result.isOK()) {
+            failedSends.increment();
+            Throwable error = result.getException();
+            logger.error("向客户端发送消息失败，断开连接: sessionId={}, error={}",
+                session.getId(), error != null ? error.getMessage() : null);
+            close(new CloseReason(CloseReason.CloseCodes.TRY_AGAIN_LATER, "send failed"));
+            return;
+        }
+        drain();
+    }
+
+    /**
+     * 丢弃的消息也要 arrive，否则这次广播的扇出计时永远不会结束。
+     */
+    private void discardQueued() {
+        Pending pending;
+        while ((pending = queue.poll()) != null) {
+            pending.arrive();
+        }
+    }
+
+    public int getQueuedCount() {
+        return queuedCount.get();
+    }
+
+    public long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    public static long getFailedSendCount() {
+        return failedSends.sum();
+    }
+
+    public static long getSlowConsumerCount() {
+        return slowConsumers.sum();
+    }
+
+    public void close(CloseReason reason) {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        discardQueued();
+        try {
+            if (session.isOpen()) {
+                session.close(reason);
+            }
+        } catch (IOException e) {
+            logger.error("关闭WebSocket连接失败: sessionId={}, error={}", session.getId(), e.getMessage());
+        }
+    }
+}
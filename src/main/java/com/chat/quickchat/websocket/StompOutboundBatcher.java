@@ -0,0 +1,176 @@
+package com.chat.quickchat.websocket;
+
+import com.chat.quickchat.metrics.FanoutChannelInterceptor;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.NativeMessageHeaderAccessor;
+import org.springframework.util.MimeTypeUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * STOMP 出站消息的自适应合并，挂在 clientOutboundChannel 上。
+ * 只对 CONNECT 时带 x-batch: true 的会话生效：距上次发送已超过窗口期时消息直接放行，空闲房间延迟不变；
+ * 窗口期内到达的消息先暂存，到期或累计超过字节上限后，同一订阅的消息合并成一个 body 为 JSON 数组、
+ * 带 x-batch 头的 MESSAGE 帧发出。
+ * 暂存过的消息在发出时把扇出计时移到 {@link FanoutChannelInterceptor#LATCHES_HEADER}，避免重新进入通道时被重复计数。
+ */
+public class StompOutboundBatcher implements ChannelInterceptor {
+    public static final String BATCH_HEADER = "x-batch";
+    private static final String REPLAY_HEADER = "x-replay";
+
+    private final long windowNanos;
+    private final int maxBytes;
+    private final Map<String, SessionBatch> sessions = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    // 合并后重新发送的消息会再次经过拦截器，用该标记直接放行
+    private final ThreadLocal<Boolean> flushing = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    public StompOutboundBatcher(long windowMillis, int maxBytes) {
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.maxBytes = maxBytes;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "stomp-batch-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void register(String sessionId) {
+        sessions.put(sessionId, new SessionBatch());
+    }
+
+    public void unregister(String sessionId) {
+        sessions.remove(sessionId);
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        if (flushing.get()) {
+            return message;
+        }
+        MessageHeaders headers = message.getHeaders();
+        if (SimpMessageHeaderAccessor.getMessageType(headers) != SimpMessageType.MESSAGE
+                || !(message.getPayload() instanceof byte[] payload)) {
+            return message;
+        }
+        SessionBatch batch = sessions.get(SimpMessageHeaderAccessor.getSessionId(headers));
+        if (batch == null || NativeMessageHeaderAccessor.getFirstNativeHeader(REPLAY_HEADER, headers) != null) {
+            return message;
+        }
+        return batch.offer(message, payload.length, channel);
+    }
+
+    private final class SessionBatch {
+        private List<Message<?>> pending = new ArrayList<>();
+        private long pendingBytes;
+        private long lastSent = System.nanoTime() - windowNanos;
+        private boolean scheduled;
+        private MessageChannel channel;
+
+        synchronized Message<?> offer(Message<?> message, int size, MessageChannel channel) {
+            long now = System.nanoTime();
+            if (pending.isEmpty() && now - lastSent >= windowNanos) {
+                lastSent = now;
+                return message;
+            }
+            pending.add(message);
+            pendingBytes += size;
+            this.channel = channel;
+            if (pendingBytes >= maxBytes) {
+                scheduled = true;
+                scheduler.execute(this::flush);
+            } else if (!scheduled) {
+                scheduled = true;
+                scheduler.schedule(this::flush, Math.max(0, lastSent + windowNanos - now), TimeUnit.NANOSECONDS);
+            }
+            return null;
+        }
+
+        void flush() {
+            List<Message<?>> drained;
+            MessageChannel target;
+            synchronized (this) {
+                drained = pending;
+                target = channel;
+                pending = new ArrayList<>();
+                pendingBytes = 0;
+                scheduled = false;
+                lastSent = System.nanoTime();
+            }
+            if (drained.isEmpty()) {
+                return;
+            }
+            Map<String, List<Message<?>>> bySubscription = new LinkedHashMap<>();
+            for (Message<?> message : drained) {
+                String subscriptionId = SimpMessageHeaderAccessor.getSubscriptionId(message.getHeaders());
+                bySubscription.computeIfAbsent(subscriptionId, id -> new ArrayList<>()).add(message);
+            }
+            flushing.set(Boolean.TRUE);
+            try {
+                for (List<Message<?>> messages : bySubscription.values()) {
+                    target.send(messages.size() == 1 ? detachLatch(messages.get(0)) : combine(messages));
+                }
+            } finally {
+                flushing.set(Boolean.FALSE);
+            }
+        }
+    }
+
+    private static Message<?> detachLatch(Message<?> message) {
+        Object latch = message.getHeaders().get(FanoutChannelInterceptor.LATCH_HEADER);
+        if (latch == null) {
+            return message;
+        }
+        return MessageBuilder.fromMessage(message)
+            .removeHeader(FanoutChannelInterceptor.LATCH_HEADER)
+            .setHeader(FanoutChannelInterceptor.LATCHES_HEADER, List.of(latch))
+            .build();
+    }
+
+    private static Message<byte[]> combine(List<Message<?>> messages) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        List<Object> latches = new ArrayList<>();
+        body.write('[');
+        for (int i = 0; i < messages.size(); i++) {
+            if (i > 0) {
+                body.write(',');
+            }
+            body.writeBytes((byte[]) messages.get(i).getPayload());
+            Object latch = messages.get(i).getHeaders().get(FanoutChannelInterceptor.LATCH_HEADER);
+            if (latch != null) {
+                latches.add(latch);
+            }
+        }
+        body.write(']');
+        MessageHeaders first = messages.get(0).getHeaders();
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(SimpMessageHeaderAccessor.getSessionId(first));
+        accessor.setSubscriptionId(SimpMessageHeaderAccessor.getSubscriptionId(first));
+        accessor.setDestination(SimpMessageHeaderAccessor.getDestination(first));
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        accessor.setNativeHeader(BATCH_HEADER, String.valueOf(messages.size()));
+        if (!latches.isEmpty()) {
+            accessor.setHeader(FanoutChannelInterceptor.LATCHES_HEADER, latches);
+        }
+        accessor.setLeaveMutable(true);
+        return MessageBuilder.createMessage(body.toByteArray(), accessor.getMessageHeaders());
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
@@ -1,111 +1,464 @@
 package com.chat.quickchat.websocket;
 
+import com.chat.quickchat.cluster.Backplane;
+import com.chat.quickchat.cluster.BackplaneListener;
+import com.chat.quickchat.metrics.ChatMetrics;
+import com.chat.quickchat.metrics.FanoutLatch;
+import com.chat.quickchat.ratelimit.RateLimiter;
+import com.chat.quickchat.ratelimit.Rejection;
+import com.chat.quickchat.ratelimit.TokenBuckets;
 import com.chat.quickchat.service.ImageCacheService;
-import com.chat.quickchat.utils.EncryptionUtil;
+import com.chat.quickchat.service.MessageLogService;
+import com.chat.quickchat.service.RoomBacklogService;
+import com.chat.quickchat.utils.CryptoEngine;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.websocket.*;
 import jakarta.websocket.server.ServerEndpoint;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
-import java.util.Base64;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 
 @ServerEndpoint("/ws")
 @Component
 public class WebSocketServer {
     private static final Logger logger = LoggerFactory.getLogger(WebSocketServer.class);
-    private static final Map<String, Session> clients = new ConcurrentHashMap<>();
-    private static final Map<String, String> userRooms = new ConcurrentHashMap<>(); // 记录用户所在的房间
-    private static final Map<String, Integer> roomOnlineCount = new ConcurrentHashMap<>(); // 记录每个房间的在线人数
+    private static final Map<String, SessionOutbound> clients = new ConcurrentHashMap<>();
+    private static final RoomRegistry roomRegistry = new RoomRegistry(); // 记录用户所在的房间及每个房间的成员
+    private static final PresenceCoalescer presence = new PresenceCoalescer();
     private static ImageCacheService imageCacheService;
+    private static RoomBacklogService roomBacklogService;
+    private static MessageLogService messageLogService;
+    private static Backplane backplane;
+    private static CryptoEngine cryptoEngine;
+    private static ChatMetrics metrics;
+    private static DeflateCompression deflateCompression;
+    private static RateLimiter rateLimiter;
+    private static RoomShards roomShards;
     private static final ObjectMapper objectMapper = new ObjectMapper();
     private static final String PUBLIC_ROOM = "public-room";
+    private static final String BINARY_RECEIVER_KEY = "binaryImageReceiver";
+    private static final String WIRE_RECEIVER_KEY = "wireFrameReceiver";
+    private static final String RATE_LIMIT_KEY = "rateLimitBuckets";
+    // 被拒绝的二进制消息剩余的分片直接丢弃，直到最后一个分片
+    private static final String DISCARD_KEY = "discardBinaryMessage";
+    // 原生 WebSocket 房间在节点总线上的 topic 前缀，与 STOMP 的 /chat/ 区分
+    private static final String TOPIC_PREFIX = "/ws/";
+    private static int maxQueueSize = 1000;
+    private static long maxQueueBytes = 1024 * 1024;
+    private static long sendTimeLimit = 10000;
+    private static boolean batchEnabled = true;
+    private static int batchMaxBytes = 65536;
+    private static boolean wireEnabled = true;
+    private static int wireMaxPayloadBytes = 65536;
 
     @Autowired
     public void setImageCacheService(ImageCacheService service) {
         WebSocketServer.imageCacheService = service;
     }
 
+    @Autowired
+    public void setRoomBacklogService(RoomBacklogService service) {
+        WebSocketServer.roomBacklogService = service;
+    }
+
+    @Autowired
+    public void setMessageLogService(MessageLogService service) {
+        WebSocketServer.messageLogService = service;
+    }
+
+    @Autowired
+    public void setCryptoEngine(CryptoEngine engine) {
+        WebSocketServer.cryptoEngine = engine;
+    }
+
+    @Autowired
+    public void setDeflateCompression(DeflateCompression compression) {
+        WebSocketServer.deflateCompression = compression;
+    }
+
+    @Autowired
+    public void setRateLimiter(RateLimiter limiter) {
+        WebSocketServer.rateLimiter = limiter;
+    }
+
+    @Autowired
+    public void setRoomShards(RoomShards shards) {
+        WebSocketServer.roomShards = shards;
+    }
+
+    @Autowired
+    public void setMetrics(ChatMetrics metrics) {
+        WebSocketServer.metrics = metrics;
+        metrics.gauge("chat.sessions", "在线会话数", ChatMetrics.WS, clients, Map::size);
+        metrics.gauge("chat.rooms", "有在线成员的房间数", ChatMetrics.WS, roomRegistry, RoomRegistry::getRoomCount);
+        metrics.trackRooms(ChatMetrics.WS, roomRegistry::hasRoom);
+        metrics.gauge("chat.outbound.queued", "出站队列中等待发送的消息数", ChatMetrics.WS, clients,
+            map -> map.values().stream().mapToInt(SessionOutbound::getQueuedCount).sum());
+        metrics.counter("chat.send.failures", "发送失败次数", ChatMetrics.WS,
+            SessionOutbound.class, type -> SessionOutbound.getFailedSendCount());
+        metrics.counter("chat.slow.consumers", "因消费过慢被断开的会话数", ChatMetrics.WS,
+            SessionOutbound.class, type -> SessionOutbound.getSlowConsumerCount());
+    }
+
+    /**
+     * 接入节点总线：其他节点转发来的消息投递给本节点的房间成员，人数变化时刷新本节点房间的在线人数。
+     */
+    @Autowired
+    public void setBackplane(Backplane backplane) {
+        WebSocketServer.backplane = backplane;
+        backplane.addListener(new BackplaneListener() {
+            @Override
+            public void onMessage(String topic, byte[] payload, boolean durable) {
+                if (!topic.startsWith(TOPIC_PREFIX)) {
+                    return;
+                }
+                String roomId = topic.substring(TOPIC_PREFIX.length());
+                BroadcastFrame frame = BroadcastFrame.ofPayload(payload);
+                // 分片队列已满时丢弃，与节点连接发送队列满时的处理一致
+                roomShards.execute(roomId, () -> {
+                    broadcastToRoom(roomId, frame);
+                    if (durable) {
+                        store(roomId, frame);
+                    }
+                });
+            }
+
+            @Override
+            public void onPresenceChanged(String topic) {
+                if (!topic.startsWith(TOPIC_PREFIX)) {
+                    return;
+                }
+                presence.markDirty(topic.substring(TOPIC_PREFIX.length()));
+            }
+        });
+    }
+
+    @Value("${websocket.outbound.max-queue-size:1000}")
+    public void setMaxQueueSize(int maxQueueSize) {
+        WebSocketServer.maxQueueSize = maxQueueSize;
+    }
+
+    @Value("${websocket.outbound.max-queue-bytes:1048576}")
+    public void setMaxQueueBytes(long maxQueueBytes) {
+        WebSocketServer.maxQueueBytes = maxQueueBytes;
+    }
+
+    @Value("${websocket.outbound.send-time-limit:10000}")
+    public void setSendTimeLimit(long sendTimeLimit) {
+        WebSocketServer.sendTimeLimit = sendTimeLimit;
+    }
+
+    @Value("${websocket.batch.enabled:true}")
+    public void setBatchEnabled(boolean batchEnabled) {
+        WebSocketServer.batchEnabled = batchEnabled;
+    }
+
+    @Value("${websocket.batch.max-bytes:65536}")
+    public void setBatchMaxBytes(int batchMaxBytes) {
+        WebSocketServer.batchMaxBytes = batchMaxBytes;
+    }
+
+    @Value("${websocket.wire.enabled:true}")
+    public void setWireEnabled(boolean wireEnabled) {
+        WebSocketServer.wireEnabled = wireEnabled;
+    }
+
+    @Value("${websocket.wire.max-payload-bytes:65536}")
+    public void setWireMaxPayloadBytes(int wireMaxPayloadBytes) {
+        WebSocketServer.wireMaxPayloadBytes = wireMaxPayloadBytes;
+    }
+
     @OnOpen
     public void onOpen(Session session) {
-        clients.put(session.getId(), session);
+        // 客户端以 /ws?batch=1 连接时开启合并发送，收到的帧可能是消息数组
+        Map<String, List<String>> parameters = session.getRequestParameterMap();
+        List<String> batchParam = parameters.get("batch");
+        boolean batch = batchEnabled && batchParam != null && batchParam.contains("1");
+        // 以 /ws?proto=bin 连接时使用二进制协议，格式见 WireMessage；仍可发送 JSON 文本帧
+        List<String> protoParam = parameters.get("proto");
+        boolean binary = wireEnabled && protoParam != null && protoParam.contains("bin");
+        if (binary) {
+            session.getUserProperties().put(WIRE_RECEIVER_KEY,
+                new WireFrameReceiver(imageCacheService, wireMaxPayloadBytes));
+        }
+        session.getUserProperties().put(RATE_LIMIT_KEY, rateLimiter.newSessionBuckets());
+        deflateCompression.install(session);
+        clients.put(session.getId(), new SessionOutbound(session, maxQueueSize, maxQueueBytes, sendTimeLimit,
+            batch ? batchMaxBytes : 0, binary));
         logger.info("新的WebSocket连接建立，ID: {}", session.getId());
     }
 
     @OnClose
     public void onClose(Session session) {
         String sessionId = session.getId();
-        String roomId = userRooms.get(sessionId);
-        
-        if (roomId != null) {
-            // 更新房间人数
-            int count = roomOnlineCount.getOrDefault(roomId, 1) - 1;
-            if (count <= 0) {
-                roomOnlineCount.remove(roomId);
-                count = 0;  // 确保不会显示负数
-            } else {
-                roomOnlineCount.put(roomId, count);
-            }
-            
-            // 广播新的在线人数
-            broadcastOnlineCount(roomId, count);
-            
-            // 清理用户记录
-            userRooms.remove(sessionId);
+        BinaryImageReceiver receiver = (BinaryImageReceiver) session.getUserProperties().remove(BINARY_RECEIVER_KEY);
+        if (receiver != null) {
+            receiver.abort();
+        }
+        WireFrameReceiver wireReceiver = (WireFrameReceiver) session.getUserProperties().remove(WIRE_RECEIVER_KEY);
+        if (wireReceiver != null) {
+            wireReceiver.abort();
         }
+        String roomId = leaveRoom(sessionId);
         
-        clients.remove(sessionId);
-        logger.info("WebSocket连接关闭，ID: {}, 房间: {}, 剩余人数: {}", 
-            sessionId, roomId, roomId != null ? roomOnlineCount.getOrDefault(roomId, 0) : 0);
+        SessionOutbound outbound = clients.remove(sessionId);
+        if (outbound != null) {
+            outbound.close(new CloseReason(CloseReason.CloseCodes.NORMAL_CLOSURE, null));
+        }
+        logger.info("WebSocket连接关闭，ID: {}, 房间: {}", sessionId, roomId);
     }
 
+    /**
+     * JSON 文本帧只用流式解析读出路由字段，不需要改写的消息原样转发，
+     * 需要加密或替换图片地址时只改写 content/encrypted 两个字段。
+     */
     @OnMessage
     public void onMessage(String message, Session session) {
         try {
-            Map<String, Object> messageMap = objectMapper.readValue(message, Map.class);
-            String type = (String) messageMap.get("type");
-            String content = (String) messageMap.get("content");
-            String chatCode = (String) messageMap.get("chatCode");
+            JsonRouting routing = JsonRouting.parse(message);
+            String type = routing.getType();
+            String content = routing.getContent();
+            String chatCode = routing.getChatCode();
 
             logger.info("收到消息: type={}, chatCode={}, sessionId={}", type, chatCode, session.getId());
+            boolean image = "image".equals(type) && content != null && content.startsWith("data:image");
+            TokenBuckets buckets = (TokenBuckets) session.getUserProperties().get(RATE_LIMIT_KEY);
+            Rejection rejection = rateLimiter.check(buckets, chatCode, utf8Length(message), image);
+            if (rejection != null) {
+                reject(session, buckets, rejection, chatCode);
+                return;
+            }
+            metrics.messageReceived(ChatMetrics.WS, chatCode);
 
             // 处理加入房间
             if ("JOIN".equals(type) || "CREATE".equals(type)) {
                 handleRoomJoin(session.getId(), chatCode);
                 // 发送系统消息
-                broadcastToRoom(chatCode, message);
+                deliver(session, chatCode, BroadcastFrame.ofText(message), false);
                 return;
             }
 
-            if ("image".equals(type) && content != null && content.startsWith("data:image")) {
-                // 处理图片消息
-                String base64Image = content.split(",")[1];
-                byte[] imageBytes = Base64.getDecoder().decode(base64Image);
+            String relayed = message;
+            if (image) {
+                // 处理图片消息，边解码边写盘
+                String filename = imageCacheService.saveBase64Image(content);
                 
-                String filename = UUID.randomUUID().toString() + ".png";
-                imageCacheService.saveImage(filename, imageBytes);
-                
-                String imageUrl = "/api/images/" + filename;
-                messageMap.put("content", imageUrl);
+                relayed = routing.withContent("/api/images/" + filename, false);
             } else if (content != null) {
                 // 加密文本消息
-                messageMap.put("content", EncryptionUtil.encrypt(content));
-                messageMap.put("encrypted", true);
+                relayed = routing.withContent(cryptoEngine.encryptToBase64(content), true);
             }
 
             // 广播消息给同一房间的客户端
-            String broadcastMessage = objectMapper.writeValueAsString(messageMap);
-            broadcastToRoom(chatCode, broadcastMessage);
+            deliver(session, chatCode, BroadcastFrame.ofText(relayed), true);
             
         } catch (IOException e) {
             logger.error("处理消息时发生错误: {}", e.getMessage());
+        } catch (IllegalStateException e) {
+            // 加密失败时丢弃该消息，不以明文广播
+            logger.error("消息加密失败，已丢弃: sessionId={}, error={}", session.getId(), e.getMessage());
+        }
+    }
+
+    /**
+     * 被限流的消息直接丢弃，同一会话每秒最多回一个 REJECTED 帧说明原因和建议的重试等待时间。
+     */
+    private static void reject(Session session, TokenBuckets buckets, Rejection rejection, String chatCode) {
+        logger.debug("消息被限流: sessionId={}, chatCode={}, scope={}, limit={}",
+            session.getId(), chatCode, rejection.getScope(), rejection.getLimit());
+        if (buckets == null || !rateLimiter.shouldNotify(buckets)) {
+            return;
+        }
+        SessionOutbound outbound = clients.get(session.getId());
+        if (outbound != null) {
+            outbound.send(BroadcastFrame.of(rateLimiter.rejectMessage(rejection, chatCode, buckets)));
+        }
+    }
+
+    /**
+     * 文本帧按 UTF-8 编码后的字节数计入字节限额，与客户端实际发送的流量一致。
+     */
+    private static long utf8Length(String text) {
+        long length = text.length();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= 0x800 && !Character.isSurrogate(c)) {
+                length += 2;
+            } else if (c >= 0x80) {
+                length++;
+            }
         }
+        return length;
+    }
+
+    /**
+     * 投递给本节点的房间成员并转发给其他节点，durable 为 true 时写入最近消息缓存和消息日志。
+     * 在房间的分片上执行，广播、转发和写入缓存的顺序与房间内其他消息一致；
+     * 分片队列已满时丢弃该消息，发送方收到 OVERLOADED 拒绝帧。
+     */
+    private static void deliver(Session session, String chatCode, BroadcastFrame frame, boolean durable) {
+        boolean accepted = roomShards.execute(chatCode, () -> {
+            broadcastToRoom(chatCode, frame);
+            backplane.publish(TOPIC_PREFIX + chatCode, frame.getPayload(), durable);
+            if (durable) {
+                store(chatCode, frame);
+            }
+        });
+        if (!accepted) {
+            reject(session, (TokenBuckets) session.getUserProperties().get(RATE_LIMIT_KEY), Rejection.OVERLOADED,
+                chatCode);
+        }
+    }
+
+    // 广播之后再写入最近消息缓存和持久化日志，日志只入队不等待落盘；
+    // 与节点总线一样按 /ws/ 前缀区分，不与 STOMP 房间的消息混在一起
+    private static void store(String chatCode, BroadcastFrame frame) {
+        roomBacklogService.append(TOPIC_PREFIX + chatCode, frame.getPayload());
+        messageLogService.append(TOPIC_PREFIX + chatCode, frame.getPayload());
+    }
+
+    /**
+     * 二进制协议的会话按 {@link WireMessage} 解码；
+     * JSON 协议的会话用二进制帧上传图片，按分片接收并直接写盘，格式见 {@link BinaryImageReceiver}。
+     */
+    @OnMessage
+    public void onBinaryMessage(ByteBuffer chunk, boolean last, Session session) {
+        Map<String, Object> properties = session.getUserProperties();
+        if (properties.containsKey(DISCARD_KEY)) {
+            if (last) {
+                properties.remove(DISCARD_KEY);
+            }
+            return;
+        }
+        TokenBuckets buckets = (TokenBuckets) properties.get(RATE_LIMIT_KEY);
+        WireFrameReceiver wireReceiver = (WireFrameReceiver) properties.get(WIRE_RECEIVER_KEY);
+        if (wireReceiver != null) {
+            onWireMessage(wireReceiver, buckets, chunk, last, session);
+            return;
+        }
+        BinaryImageReceiver receiver = (BinaryImageReceiver) properties.get(BINARY_RECEIVER_KEY);
+        if (receiver == null) {
+            // 图片在第一个分片就按会话限额检查，被拒绝时不落盘；房间号在消息头解析完后才知道，收完再查房间限额
+            Rejection rejection = rateLimiter.checkSession(buckets, 0, true);
+            if (rejection != null) {
+                rejectBinary(session, buckets, rejection, null, last);
+                return;
+            }
+            receiver = new BinaryImageReceiver(imageCacheService, objectMapper);
+            properties.put(BINARY_RECEIVER_KEY, receiver);
+        }
+        try {
+            receiver.accept(chunk);
+            if (!last) {
+                return;
+            }
+            properties.remove(BINARY_RECEIVER_KEY);
+            Map<String, Object> messageMap = receiver.finish();
+            String chatCode = (String) messageMap.get("chatCode");
+            Rejection rejection = rateLimiter.checkRoom(chatCode, 0, true, buckets);
+            if (rejection != null) {
+                reject(session, buckets, rejection, chatCode);
+                return;
+            }
+            logger.info("收到二进制图片消息: chatCode={}, sessionId={}, 图片={}",
+                chatCode, session.getId(), messageMap.get("content"));
+            metrics.messageReceived(ChatMetrics.WS, chatCode);
+            deliver(session, chatCode, BroadcastFrame.of(messageMap), true);
+        } catch (IOException e) {
+            logger.error("处理二进制消息时发生错误: sessionId={}, error={}", session.getId(), e.getMessage());
+            receiver.abort();
+            properties.remove(BINARY_RECEIVER_KEY);
+            SessionOutbound outbound = clients.get(session.getId());
+            if (outbound != null) {
+                outbound.close(new CloseReason(CloseReason.CloseCodes.CANNOT_ACCEPT, e.getMessage()));
+            }
+        }
+    }
+
+    /**
+     * IMAGE 在消息头到达后立即检查限额，被拒绝时放弃已写的部分；其他类型的载荷有上限，收完后按实际字节数检查。
+     */
+    private void onWireMessage(WireFrameReceiver receiver, TokenBuckets buckets, ByteBuffer chunk, boolean last,
+                               Session session) {
+        try {
+            boolean first = !receiver.isStarted();
+            receiver.accept(chunk);
+            WireMessage message = receiver.getMessage();
+            boolean image = message.getType() == WireMessage.Type.IMAGE;
+            if (first && image) {
+                Rejection rejection = rateLimiter.check(buckets, message.getRoomId(), 0, true);
+                if (rejection != null) {
+                    receiver.abort();
+                    rejectBinary(session, buckets, rejection, message.getRoomId(), last);
+                    return;
+                }
+            }
+            if (!last) {
+                return;
+            }
+            message = receiver.finish();
+            if (!image) {
+                Rejection rejection = rateLimiter.check(buckets, message.getRoomId(), message.getPayloadLength(), false);
+                if (rejection != null) {
+                    reject(session, buckets, rejection, message.getRoomId());
+                    return;
+                }
+            }
+            handleWireMessage(message, session);
+        } catch (IOException e) {
+            logger.error("处理二进制协议消息时发生错误: sessionId={}, error={}", session.getId(), e.getMessage());
+            receiver.abort();
+            SessionOutbound outbound = clients.get(session.getId());
+            if (outbound != null) {
+                outbound.close(new CloseReason(CloseReason.CloseCodes.CANNOT_ACCEPT, e.getMessage()));
+            }
+        }
+    }
+
+    private static void rejectBinary(Session session, TokenBuckets buckets, Rejection rejection, String chatCode,
+                                     boolean last) {
+        if (!last) {
+            session.getUserProperties().put(DISCARD_KEY, Boolean.TRUE);
+        }
+        reject(session, buckets, rejection, chatCode);
+    }
+
+    /**
+     * 与 onMessage 的处理一致，只是消息已经解码成 {@link WireMessage}，广播帧同时带 JSON 和二进制两种编码。
+     */
+    private void handleWireMessage(WireMessage message, Session session) {
+        String chatCode = message.getRoomId();
+        WireMessage.Type type = message.getType();
+        if (chatCode == null || type == WireMessage.Type.ONLINE_COUNT) {
+            logger.warn("忽略无效的二进制协议消息: type={}, chatCode={}, sessionId={}", type, chatCode, session.getId());
+            return;
+        }
+        metrics.messageReceived(ChatMetrics.WS, chatCode);
+
+        if (type == WireMessage.Type.JOIN || type == WireMessage.Type.CREATE) {
+            handleRoomJoin(session.getId(), chatCode);
+            deliver(session, chatCode, BroadcastFrame.of(message), false);
+            return;
+        }
+        if (type != WireMessage.Type.IMAGE && message.getPayloadLength() > 0) {
+            try {
+                message.encryptPayload(cryptoEngine);
+            } catch (IllegalStateException e) {
+                logger.error("消息加密失败，已丢弃: sessionId={}, error={}", session.getId(), e.getMessage());
+                return;
+            }
+        }
+        deliver(session, chatCode, BroadcastFrame.of(message), true);
     }
 
     @OnError
@@ -115,147 +468,137 @@ public class WebSocketServer {
     }
 
     private void broadcast(String message) {
-        clients.values().forEach(session -> {
-            try {
-                session.getBasicRemote().sendText(message);
-            } catch (IOException e) {
-                logger.error("广播消息失败: {}", e.getMessage());
-            }
-        });
+        BroadcastFrame frame = BroadcastFrame.ofText(message);
+        clients.values().forEach(outbound -> outbound.send(frame));
     }
 
-    // 添加定向广播方法
-    private void broadcastToRoom(String roomId, String message) {
+    /**
+     * 只在房间的分片上调用。
+     */
+    static void broadcastToRoom(String roomId, BroadcastFrame frame) {
         int successCount = 0;
         int totalCount = 0;
+        FanoutLatch latch = metrics.startFanout(ChatMetrics.WS);
         
-        for (Map.Entry<String, Session> entry : clients.entrySet()) {
-            String sessionId = entry.getKey();
-            Session session = entry.getValue();
-            String userRoomId = userRooms.get(sessionId);
-            
-            if (roomId.equals(userRoomId)) {
-                totalCount++;
-                try {
-                    session.getBasicRemote().sendText(message);
-                    successCount++;
-                } catch (IOException e) {
-                    logger.error("向房间广播消息失败: sessionId={}, error={}", sessionId, e.getMessage());
-                }
+        // 只负责入队，实际发送由各会话的出站队列异步完成
+        for (String sessionId : roomRegistry.getMembers(roomId)) {
+            SessionOutbound outbound = clients.get(sessionId);
+            if (outbound == null) {
+                continue;
+            }
+            totalCount++;
+            if (outbound.send(frame, latch)) {
+                successCount++;
             }
         }
+        latch.arrive();
         
-        logger.info("房间消息广播完成: roomId={}, 成功={}/{}", roomId, successCount, totalCount);
+        logger.debug("房间消息广播完成: roomId={}, 入队={}/{}", roomId, successCount, totalCount);
     }
 
+    /**
+     * 会话所在的房间在收消息的线程上立即登记，成员变化分别交给旧房间和新房间的分片。
+     * 同一会话的消息按顺序到达，它之后发出的消息一定排在加入之后；
+     * 回放和广播在同一分片上先后执行，加入者不会漏掉或重复收到加入前后的消息。
+     */
     private void handleRoomJoin(String sessionId, String roomId) {
         logger.info("处理用户加入房间: sessionId={}, roomId={}", sessionId, roomId);
         
         // 如果用户之前在其他房间，先处理离开
-        String oldRoomId = userRooms.get(sessionId);
+        String oldRoomId = roomRegistry.assign(sessionId, roomId);
         if (oldRoomId != null && !oldRoomId.equals(roomId)) {
             logger.info("用户从房间 {} 切换到 {}", oldRoomId, roomId);
-            int oldCount = roomOnlineCount.getOrDefault(oldRoomId, 1) - 1;
-            if (oldCount <= 0) {
-                roomOnlineCount.remove(oldRoomId);
-                oldCount = 0;
-            } else {
-                roomOnlineCount.put(oldRoomId, oldCount);
-            }
-            logger.info("原房间 {} 剩余人数: {}", oldRoomId, oldCount);
-            broadcastOnlineCount(oldRoomId, oldCount);
+            roomShards.executeOrWait(oldRoomId, () -> {
+                roomRegistry.removeMember(oldRoomId, sessionId);
+                presence.markDirty(oldRoomId);
+            });
         }
-
-        // 处理加入新房间
-        userRooms.put(sessionId, roomId);
-        int newCount = roomOnlineCount.getOrDefault(roomId, 0) + 1;
-        roomOnlineCount.put(roomId, newCount);
-        
-        logger.info("房间 {} 当前在线人数: {}", roomId, newCount);
         
-        // 确保立即广播新的在线人数
-        try {
-            Map<String, Object> countMessage = Map.of(
-                "type", "ONLINE_COUNT",
-                "chatCode", roomId,
-                "count", newCount,
-                "timestamp", System.currentTimeMillis()
-            );
-            String message = objectMapper.writeValueAsString(countMessage);
-            logger.info("立即广播在线人数: roomId={}, count={}", roomId, newCount);
-            broadcastToRoom(roomId, message);
-        } catch (IOException e) {
-            logger.error("广播在线人数失败: {}", e.getMessage());
-        }
+        roomShards.executeOrWait(roomId, () -> {
+            roomRegistry.addMember(roomId, sessionId);
+            // 先给新加入的用户回放房间最近的消息
+            SessionOutbound outbound = clients.get(sessionId);
+            if (outbound != null) {
+                for (byte[] payload : roomBacklogService.recent(TOPIC_PREFIX + roomId)) {
+                    outbound.send(BroadcastFrame.ofPayload(payload));
+                }
+                // 加入者立即拿到当前人数，房间其他成员在下一拍收到合并后的人数
+                outbound.send(onlineCountFrame(roomId));
+            }
+            presence.markDirty(roomId);
+        });
     }
 
-    private void broadcastOnlineCount(String roomId, int count) {
-        try {
-            Map<String, Object> countMessage = Map.of(
-                "type", "ONLINE_COUNT",
-                "chatCode", roomId,
-                "count", count,
-                "timestamp", System.currentTimeMillis()
-            );
-            String message = objectMapper.writeValueAsString(countMessage);
-            logger.info("广播在线人数: roomId={}, count={}, 当前房间总数={}", 
-                roomId, count, roomOnlineCount.size());
-            broadcastToRoom(roomId, message);
-        } catch (IOException e) {
-            logger.error("广播在线人数失败: {}", e.getMessage());
+    /**
+     * 取消会话所在房间的登记，成员移除交给房间的分片，排在该会话之前的加入之后。
+     *
+     * @return 会话离开的房间，不在任何房间时返回 null
+     */
+    private static String leaveRoom(String sessionId) {
+        String roomId = roomRegistry.unassign(sessionId);
+        if (roomId != null) {
+            roomShards.executeOrWait(roomId, () -> {
+                roomRegistry.removeMember(roomId, sessionId);
+                // 下一拍广播新的在线人数
+                presence.markDirty(roomId);
+            });
         }
+        return roomId;
     }
 
-    public static void handleDisconnect(String sessionId) {
-        String roomId = userRooms.get(sessionId);
-        
-        if (roomId != null) {
-            // 更新房间人数
-            int count = roomOnlineCount.getOrDefault(roomId, 1) - 1;
-            if (count <= 0) {
-                roomOnlineCount.remove(roomId);
-                count = 0;  // 确保不会显示负数
-            } else {
-                roomOnlineCount.put(roomId, count);
-            }
-            
-            // 广播新的在线人数
-            try {
-                Map<String, Object> countMessage = Map.of(
-                    "type", "ONLINE_COUNT",
-                    "chatCode", roomId,
-                    "count", count,
-                    "timestamp", System.currentTimeMillis()
-                );
-                String message = objectMapper.writeValueAsString(countMessage);
-                logger.info("广播在线人数: roomId={}, count={}", roomId, count);
-                
-                // 遍历所有客户端，向同一房间的用户广播消息
-                for (Map.Entry<String, Session> entry : clients.entrySet()) {
-                    String clientSessionId = entry.getKey();
-                    Session clientSession = entry.getValue();
-                    String clientRoomId = userRooms.get(clientSessionId);
-                    
-                    if (roomId.equals(clientRoomId)) {
-                        try {
-                            clientSession.getBasicRemote().sendText(message);
-                        } catch (IOException e) {
-                            logger.error("向客户端发送在线人数更新失败: sessionId={}, error={}", 
-                                clientSessionId, e.getMessage());
-                        }
-                    }
+    /**
+     * 按节拍刷新人数有变化的房间：上报给节点总线，并向本节点的房间成员广播最新的全局在线人数。
+     */
+    @Scheduled(fixedRateString = "${websocket.presence.tick-interval:1000}")
+    public void flushPresence() {
+        List<String> deferred = new ArrayList<>();
+        presence.flush(roomId -> {
+            boolean accepted = roomShards.execute(roomId, () -> {
+                int localCount = roomRegistry.getOnlineCount(roomId);
+                backplane.updatePresence(TOPIC_PREFIX + roomId, localCount);
+                if (localCount > 0) {
+                    broadcastOnlineCount(roomId);
+                } else {
+                    metrics.roomClosed(ChatMetrics.WS, roomId);
                 }
-            } catch (IOException e) {
-                logger.error("广播在线人数失败: {}", e.getMessage());
+            });
+            if (!accepted) {
+                deferred.add(roomId);
             }
-            
-            // 清理用户记录
-            userRooms.remove(sessionId);
-        }
+        });
+        // 分片队列已满的房间留到下一拍再刷新
+        deferred.forEach(presence::markDirty);
+    }
+
+    /**
+     * @return 所有节点上该房间的在线人数之和
+     */
+    public static int getOnlineCount(String roomId) {
+        return roomRegistry.getOnlineCount(roomId) + backplane.getRemoteCount(TOPIC_PREFIX + roomId);
+    }
+
+    private static BroadcastFrame onlineCountFrame(String roomId) {
+        WireMessage message = new WireMessage();
+        message.setType(WireMessage.Type.ONLINE_COUNT);
+        message.setRoomId(roomId);
+        message.setPayloadInt(getOnlineCount(roomId));
+        message.setTimestamp(System.currentTimeMillis());
+        return BroadcastFrame.of(message);
+    }
+
+    private static void broadcastOnlineCount(String roomId) {
+        logger.info("广播在线人数: roomId={}, 当前房间总数={}", roomId, roomRegistry.getRoomCount());
+        broadcastToRoom(roomId, onlineCountFrame(roomId));
+    }
+
+    public static void handleDisconnect(String sessionId) {
+        String roomId = leaveRoom(sessionId);
         
         // 移除客户端连接
-        clients.remove(sessionId);
-        logger.info("已清理断开连接的用户: sessionId={}, 房间: {}, 剩余人数: {}", 
-            sessionId, roomId, roomId != null ? roomOnlineCount.getOrDefault(roomId, 0) : 0);
+        SessionOutbound outbound = clients.remove(sessionId);
+        if (outbound != null) {
+            outbound.close(new CloseReason(CloseReason.CloseCodes.NORMAL_CLOSURE, null));
+        }
+        logger.info("已清理断开连接的用户: sessionId={}, 房间: {}", sessionId, roomId);
     }
-} 
\ No newline at end of file
+}
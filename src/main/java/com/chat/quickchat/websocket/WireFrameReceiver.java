@@ -0,0 +1,108 @@
+package com.chat.quickchat.websocket;
+
+import com.chat.quickchat.service.ImageCacheService;
+import com.chat.quickchat.service.ImageUpload;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 接收二进制协议会话的入站帧，帧格式见 {@link WireMessage}。
+ * 消息头必须完整地落在第一个分片内(容器的分片远大于消息头上限)；
+ * IMAGE 的图片字节按分片直接写盘，其他类型的载荷累积到复用的 {@link WireMessage} 中。
+ * 每个会话一个实例，消息之间复用，只在容器的消息处理线程上使用。
+ */
+class WireFrameReceiver {
+    private final ImageCacheService imageCacheService;
+    private final int maxPayloadBytes;
+    private final WireMessage message = new WireMessage();
+    private boolean started;
+    private ImageUpload upload;
+
+    /**
+     * @param maxPayloadBytes 非图片消息载荷的最大字节数
+     */
+    WireFrameReceiver(ImageCacheService imageCacheService, int maxPayloadBytes) {
+        this.imageCacheService = imageCacheService;
+        this.maxPayloadBytes = maxPayloadBytes;
+    }
+
+    void accept(ByteBuffer chunk) throws IOException {
+        if (!started) {
+            message.decodeHeader(chunk);
+            // 加密标志只由服务端设置
+            message.clearFlags();
+            started = true;
+            if (message.getType() == WireMessage.Type.IMAGE) {
+                upload = imageCacheService.beginUpload(ImageCacheService.extensionForMimeType(readMimeType(chunk)));
+            }
+        }
+        if (upload != null) {
+            if (chunk.hasRemaining()) {
+                upload.write(chunk);
+            }
+            return;
+        }
+        if (message.getPayloadLength() + chunk.remaining() > maxPayloadBytes) {
+            throw new IOException("二进制消息载荷超过 " + maxPayloadBytes + " 字节");
+        }
+        message.appendPayload(chunk);
+    }
+
+    private static String readMimeType(ByteBuffer chunk) throws IOException {
+        if (!chunk.hasRemaining()) {
+            throw new IOException("图片消息缺少 MIME 类型");
+        }
+        int length = chunk.get() & 0xff;
+        if (chunk.remaining() < length) {
+            throw new IOException("图片消息缺少 MIME 类型");
+        }
+        if (length == 0) {
+            return null;
+        }
+        byte[] mimeType = new byte[length];
+        chunk.get(mimeType);
+        return new String(mimeType, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * 消息最后一个分片到达后调用，图片会先提交上传并把载荷替换为图片地址。
+     *
+     * @return 解码好的消息，下一次 accept 前有效
+     */
+    WireMessage finish() throws IOException {
+        if (!started) {
+            throw new IOException("二进制消息不完整");
+        }
+        started = false;
+        if (upload != null) {
+            ImageUpload committed = upload;
+            upload = null;
+            message.setPayloadText("/api/images/" + committed.commit());
+        }
+        return message;
+    }
+
+    /**
+     * 当前消息已收到第一个分片、还没有 finish 或 abort
+     */
+    boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * 正在接收的消息，第一个分片之后消息头字段有效，载荷要到 finish 之后才完整
+     */
+    WireMessage getMessage() {
+        return message;
+    }
+
+    void abort() {
+        started = false;
+        if (upload != null) {
+            upload.abort();
+            upload = null;
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package com.chat.quickchat.websocket;
+
+import com.chat.quickchat.utils.CryptoEngine;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 原生 /ws 二进制协议的一条消息，客户端以 /ws?proto=bin 连接时使用。
+ * 帧格式(多字节整数均为大端):
+ * [1字节版本][1字节类型][1字节标志][8字节时间戳][1字节房间号长度][房间号 UTF-8][1字节发送者长度][发送者 UTF-8][载荷]
+ * 载荷按类型解释:
+ * CHAT 客户端发来的是 UTF-8 原文，服务端发出的是 IV + 密文 + 标签并带 ENCRYPTED 标志，不再转成 Base64；
+ * IMAGE 客户端发来的是 [1字节 MIME 长度][MIME][图片字节]，服务端发出的是图片地址；
+ * ONLINE_COUNT 为 4 字节人数；其余类型为可选的 UTF-8 文本。
+ * 实例可变，同一会话的入站消息反复解码到同一个实例里，房间号和发送者不变时不会重新创建字符串。
+ */
+public final class WireMessage {
+    public static final byte VERSION = 1;
+    public static final int FLAG_ENCRYPTED = 1;
+    // 版本、类型、标志、时间戳和两个长度字节
+    public static final int FIXED_HEADER_BYTES = 13;
+    private static final int MAX_NAME_BYTES = 255;
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    public enum Type {
+        CHAT(1, "CHAT"),
+        JOIN(2, "JOIN"),
+        LEAVE(3, "LEAVE"),
+        ONLINE_COUNT(4, "ONLINE_COUNT"),
+        CREATE(5, "CREATE"),
+        IMAGE(6, "image");
+
+        private static final Type[] BY_CODE = new Type[7];
+
+        static {
+            for (Type type : values()) {
+                BY_CODE[type.code] = type;
+            }
+        }
+
+        private final byte code;
+        private final String jsonName;
+
+        Type(int code, String jsonName) {
+            this.code = (byte) code;
+            this.jsonName = jsonName;
+        }
+
+        public byte getCode() {
+            return code;
+        }
+
+        /**
+         * 与 JSON 协议中 type 字段的取值一致
+         */
+        public String getJsonName() {
+            return jsonName;
+        }
+
+        static Type of(int code) {
+            return code > 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+        }
+    }
+
+    /**
+     * 上一次解码出的字符串，字节相同时直接复用。
+     */
+    private static final class CachedString {
+        private byte[] bytes;
+        private int length = -1;
+        private String value;
+
+        String read(ByteBuffer buffer, int length) {
+            if (length == this.length) {
+                int start = buffer.position();
+                if (Arrays.equals(bytes, 0, length, buffer.array(), buffer.arrayOffset() + start,
+                        buffer.arrayOffset() + start + length)) {
+                    buffer.position(start + length);
+                    return value;
+                }
+            }
+            if (bytes == null) {
+                bytes = new byte[MAX_NAME_BYTES];
+            }
+            buffer.get(bytes, 0, length);
+            this.length = length;
+            value = new String(bytes, 0, length, StandardCharsets.UTF_8);
+            return value;
+        }
+    }
+
+    private final CachedString roomCache = new CachedString();
+    private final CachedString senderCache = new CachedString();
+    private Type type;
+    private int flags;
+    private long timestamp;
+    private String roomId;
+    private String sender;
+    private byte[] payload = new byte[64];
+    private int payloadLength;
+    // 加密时写入的备用缓冲，与 payload 交替使用
+    private byte[] spare = new byte[0];
+
+    public Type getType() {
+        return type;
+    }
+
+    public void setType(Type type) {
+        this.type = type;
+    }
+
+    public boolean isEncrypted() {
+        return (flags & FLAG_ENCRYPTED) != 0;
+    }
+
+    void clearFlags() {
+        flags = 0;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public String getRoomId() {
+        return roomId;
+    }
+
+    public void setRoomId(String roomId) {
+        this.roomId = roomId;
+    }
+
+    public String getSender() {
+        return sender;
+    }
+
+    public void setSender(String sender) {
+        this.sender = sender;
+    }
+
+    /**
+     * 载荷缓冲，有效内容为前 {@link #getPayloadLength()} 个字节，下一次解码时会被覆盖。
+     */
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    public int getPayloadLength() {
+        return payloadLength;
+    }
+
+    public String getPayloadText() {
+        return new String(payload, 0, payloadLength, StandardCharsets.UTF_8);
+    }
+
+    public void setPayload(byte[] bytes) {
+        payloadLength = 0;
+        appendPayload(ByteBuffer.wrap(bytes));
+        flags &= ~FLAG_ENCRYPTED;
+    }
+
+    public void setPayloadText(String text) {
+        setPayload(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void setPayloadInt(int value) {
+        ensureCapacity(Integer.BYTES);
+        ByteBuffer.wrap(payload).putInt(0, value);
+        payloadLength = Integer.BYTES;
+        flags &= ~FLAG_ENCRYPTED;
+    }
+
+    public int getPayloadInt() {
+        return payloadLength >= Integer.BYTES ? ByteBuffer.wrap(payload).getInt(0) : 0;
+    }
+
+    void appendPayload(ByteBuffer chunk) {
+        int length = chunk.remaining();
+        ensureCapacity(payloadLength + length);
+        chunk.get(payload, payloadLength, length);
+        payloadLength += length;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > payload.length) {
+            payload = Arrays.copyOf(payload, Math.max(capacity, payload.length * 2));
+        }
+    }
+
+    /**
+     * 把载荷加密为 IV + 密文 + 标签，结果写入备用缓冲后与 payload 交换，两个缓冲都会被复用。
+     */
+    public void encryptPayload(CryptoEngine engine) {
+        int size = CryptoEngine.encryptedSize(payloadLength);
+        if (spare.length < size) {
+            spare = new byte[Math.max(size, spare.length * 2)];
+        }
+        engine.encrypt(ByteBuffer.wrap(payload, 0, payloadLength), ByteBuffer.wrap(spare, 0, size));
+        byte[] plaintext = payload;
+        payload = spare;
+        spare = plaintext;
+        payloadLength = size;
+        flags |= FLAG_ENCRYPTED;
+    }
+
+    /**
+     * 从 buffer 当前位置解码消息头，buffer 停在载荷开始处，载荷本身不会读取。
+     */
+    public void decodeHeader(ByteBuffer buffer) throws IOException {
+        if (!buffer.hasArray()) {
+            throw new IOException("二进制消息必须是堆缓冲");
+        }
+        if (buffer.remaining() < FIXED_HEADER_BYTES) {
+            throw new IOException("二进制消息头不完整");
+        }
+        byte version = buffer.get();
+        if (version != VERSION) {
+            throw new IOException("不支持的二进制协议版本: " + version);
+        }
+        int code = buffer.get();
+        type = Type.of(code);
+        if (type == null) {
+            throw new IOException("未知的消息类型: " + code);
+        }
+        flags = buffer.get() & 0xff;
+        timestamp = buffer.getLong();
+        roomId = readName(buffer, roomCache);
+        if (!buffer.hasRemaining()) {
+            throw new IOException("二进制消息头不完整");
+        }
+        sender = readName(buffer, senderCache);
+        payloadLength = 0;
+    }
+
+    private static String readName(ByteBuffer buffer, CachedString cache) throws IOException {
+        int length = buffer.get() & 0xff;
+        if (buffer.remaining() < length) {
+            throw new IOException("二进制消息头不完整");
+        }
+        return length == 0 ? null : cache.read(buffer, length);
+    }
+
+    /**
+     * 解码完整的一帧，载荷复制到内部缓冲。
+     */
+    public void decode(ByteBuffer buffer) throws IOException {
+        decodeHeader(buffer);
+        appendPayload(buffer);
+    }
+
+    /**
+     * @return 编码后的完整帧，每次调用都是新数组，可以在接收者之间共享
+     */
+    public byte[] encode() {
+        byte[] room = roomId != null ? roomId.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        byte[] from = sender != null ? sender.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        if (room.length > MAX_NAME_BYTES || from.length > MAX_NAME_BYTES) {
+            throw new IllegalArgumentException("房间号或发送者超过 " + MAX_NAME_BYTES + " 字节");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(FIXED_HEADER_BYTES + room.length + from.length + payloadLength);
+        buffer.put(VERSION)
+            .put(type.getCode())
+            .put((byte) flags)
+            .putLong(timestamp)
+            .put((byte) room.length)
+            .put(room)
+            .put((byte) from.length)
+            .put(from)
+            .put(payload, 0, payloadLength);
+        return buffer.array();
+    }
+
+    /**
+     * 按 JSON 协议的字段输出，供 JSON 客户端、最近消息缓存和消息日志使用：
+     * 密文以 Base64 放在 content 并带 encrypted，在线人数放在 count。
+     */
+    public byte[] toJson() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(payloadLength * 4 / 3 + 128);
+        try (JsonGenerator generator = jsonFactory.createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeStringField("type", type.getJsonName());
+            generator.writeStringField("chatCode", roomId);
+            if (sender != null) {
+                generator.writeStringField("sender", sender);
+            }
+            if (type == Type.ONLINE_COUNT) {
+                generator.writeNumberField("count", getPayloadInt());
+            } else if (isEncrypted()) {
+                generator.writeFieldName("content");
+                generator.writeBinary(payload, 0, payloadLength);
+                generator.writeBooleanField("encrypted", true);
+            } else if (payloadLength > 0) {
+                generator.writeFieldName("content");
+                generator.writeUTF8String(payload, 0, payloadLength);
+            }
+            generator.writeNumberField("timestamp", timestamp);
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException("消息序列化失败", e);
+        }
+        return out.toByteArray();
+    }
+}